@@ -0,0 +1,428 @@
+package com.burgstaller.okhttp;
+
+import com.burgstaller.okhttp.digest.CachingAuthenticator;
+import okhttp3.internal.platform.Platform;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded authentication cache to be shared by {@link CachingAuthenticatorDecorator} and
+ * {@link AuthenticationCacheInterceptor}. Unlike a plain {@link ConcurrentHashMap} it does not grow
+ * with every host ever contacted: the least recently used authenticators are evicted once the
+ * maximum size is reached, and authenticators which have not been used for the configured idle
+ * time expire.
+ * <p>
+ * Lookups do not lock, they record the access as a timestamp on the entry. The cost of the
+ * eviction is paid by the writes: a put which exceeds the maximum size evicts the least recently
+ * used entries in one pass, down to a sixteenth below the maximum size so that the following puts
+ * do not have to evict again. Concurrent puts may exceed the maximum size briefly. Expired entries
+ * are removed when they are accessed, when the cache overflows and on {@link #cleanUp()}.
+ * <p>
+ * Evictions, i.e. removals because of the size bound or expiry, are reported to the registered
+ * {@link EvictionListener}s. Explicit removals are not reported.
+ */
+public class AuthCache extends AbstractMap<String, CachingAuthenticator>
+        implements ConcurrentMap<String, CachingAuthenticator> {
+    /**
+     * The default number of threads expected to update the cache concurrently.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+    /**
+     * A full cache evicts {@code maximumSize / EVICTION_BATCH_DIVISOR} entries more than necessary,
+     * which spreads the cost of finding the least recently used entries over the following puts.
+     */
+    private static final int EVICTION_BATCH_DIVISOR = 16;
+
+    private final ConcurrentHashMap<String, CacheEntry> entries;
+    private final int maximumSize;
+    private final int lowWaterMark;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+    private final Object evictionLock = new Object();
+    private final CopyOnWriteArrayList<EvictionListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates a cache without idle expiry.
+     *
+     * @param maximumSize the maximum number of cached authenticators.
+     */
+    public AuthCache(int maximumSize) {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maximumSize       the maximum number of cached authenticators.
+     * @param expireAfterAccess the idle time after which an authenticator expires, {@code 0} for none.
+     * @param unit              the unit of {@code expireAfterAccess}.
+     */
+    public AuthCache(int maximumSize, long expireAfterAccess, TimeUnit unit) {
+        this(maximumSize, expireAfterAccess, unit, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maximumSize       the maximum number of cached authenticators.
+     * @param expireAfterAccess the idle time after which an authenticator expires, {@code 0} for none.
+     * @param unit              the unit of {@code expireAfterAccess}.
+     * @param concurrencyLevel  the estimated number of threads updating the cache concurrently.
+     */
+    public AuthCache(int maximumSize, long expireAfterAccess, TimeUnit unit, int concurrencyLevel) {
+        this(maximumSize, expireAfterAccess, unit, concurrencyLevel, System::nanoTime);
+    }
+
+    AuthCache(int maximumSize, long expireAfterAccess, TimeUnit unit, int concurrencyLevel, LongSupplier ticker) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        if (expireAfterAccess < 0) {
+            throw new IllegalArgumentException("expireAfterAccess must not be negative: " + expireAfterAccess);
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+        this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024), 0.75f, concurrencyLevel);
+        this.maximumSize = maximumSize;
+        this.lowWaterMark = maximumSize - maximumSize / EVICTION_BATCH_DIVISOR;
+        this.expireAfterAccessNanos = unit.toNanos(expireAfterAccess);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Registers a listener which is notified about every eviction. Listeners are called on the
+     * thread causing the eviction, after the entries have been removed.
+     *
+     * @param listener the listener.
+     */
+    public void addEvictionListener(EvictionListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public void removeEvictionListener(EvictionListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public CachingAuthenticator get(Object key) {
+        final CachingAuthenticator value = access(key);
+        if (value != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return access(key) != null;
+    }
+
+    @Override
+    public CachingAuthenticator put(String key, CachingAuthenticator value) {
+        Objects.requireNonNull(value, "value");
+        final long now = ticker.getAsLong();
+        final CacheEntry old = entries.put(key, new CacheEntry(value, now));
+        Removal removals = null;
+        CachingAuthenticator previous = null;
+        if (old != null) {
+            if (isExpired(old, now)) {
+                removals = new Removal(key, old.value, RemovalCause.EXPIRED, null);
+            } else {
+                previous = old.value;
+            }
+        }
+        notifyListeners(evictIfFull(now, removals));
+        return previous;
+    }
+
+    @Override
+    public CachingAuthenticator putIfAbsent(String key, CachingAuthenticator value) {
+        Objects.requireNonNull(value, "value");
+        final long now = ticker.getAsLong();
+        final CacheEntry created = new CacheEntry(value, now);
+        while (true) {
+            final CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                if (entries.putIfAbsent(key, created) == null) {
+                    notifyListeners(evictIfFull(now, null));
+                    return null;
+                }
+            } else if (!isExpired(entry, now)) {
+                entry.accessedAtNanos = now;
+                return entry.value;
+            } else if (entries.replace(key, entry, created)) {
+                notifyListeners(evictIfFull(now, new Removal(key, entry.value, RemovalCause.EXPIRED, null)));
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public CachingAuthenticator remove(Object key) {
+        final CacheEntry entry = entries.remove(key);
+        return entry == null || isExpired(entry, ticker.getAsLong()) ? null : entry.value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (value == null) {
+            return false;
+        }
+        final long now = ticker.getAsLong();
+        while (true) {
+            final CacheEntry entry = entries.get(key);
+            if (entry == null || isExpired(entry, now) || !value.equals(entry.value)) {
+                return false;
+            }
+            if (entries.remove(key, entry)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(String key, CachingAuthenticator oldValue, CachingAuthenticator newValue) {
+        Objects.requireNonNull(oldValue, "oldValue");
+        Objects.requireNonNull(newValue, "newValue");
+        final long now = ticker.getAsLong();
+        while (true) {
+            final CacheEntry entry = entries.get(key);
+            if (entry == null || isExpired(entry, now) || !oldValue.equals(entry.value)) {
+                return false;
+            }
+            if (entries.replace(key, entry, new CacheEntry(newValue, now))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public CachingAuthenticator replace(String key, CachingAuthenticator value) {
+        Objects.requireNonNull(value, "value");
+        final long now = ticker.getAsLong();
+        while (true) {
+            final CacheEntry entry = entries.get(key);
+            if (entry == null || isExpired(entry, now)) {
+                return null;
+            }
+            if (entries.replace(key, entry, new CacheEntry(value, now))) {
+                return entry.value;
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached authenticators, expired ones are evicted first.
+     */
+    @Override
+    public int size() {
+        final Removal removals;
+        synchronized (evictionLock) {
+            removals = evictExpired(ticker.getAsLong(), null);
+        }
+        notifyListeners(removals);
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns a snapshot of the cached authenticators which is not updated with the cache and
+     * cannot be modified. Reading the snapshot does not count as access.
+     */
+    @Override
+    public Set<Map.Entry<String, CachingAuthenticator>> entrySet() {
+        final long now = ticker.getAsLong();
+        final Map<String, CachingAuthenticator> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            if (!isExpired(entry.getValue(), now)) {
+                snapshot.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    /**
+     * Evicts all expired authenticators. Expired entries are otherwise only evicted lazily, call
+     * this periodically if the cache is idle for long periods and the listeners need to be
+     * notified timely.
+     */
+    public void cleanUp() {
+        size();
+    }
+
+    /**
+     * @return the number of lookups which found a cached authenticator.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return the number of lookups which did not find a cached authenticator.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the number of authenticators evicted because of the size bound or expiry.
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Looks up a live entry and records the access, without affecting the statistics.
+     */
+    private CachingAuthenticator access(Object key) {
+        final CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        final long now = ticker.getAsLong();
+        if (isExpired(entry, now)) {
+            if (entries.remove(key, entry)) {
+                notifyListeners(new Removal((String) key, entry.value, RemovalCause.EXPIRED, null));
+            }
+            return null;
+        }
+        entry.accessedAtNanos = now;
+        return entry.value;
+    }
+
+    /**
+     * Evicts expired entries and, if the cache is still beyond its maximum size, the least
+     * recently used ones down to the low-water mark.
+     */
+    private Removal evictIfFull(long now, Removal removals) {
+        if (entries.size() <= maximumSize) {
+            return removals;
+        }
+        synchronized (evictionLock) {
+            // a concurrent put may have evicted while this one was waiting for the lock
+            if (entries.size() <= maximumSize) {
+                return removals;
+            }
+            removals = evictExpired(now, removals);
+            if (entries.size() <= maximumSize) {
+                return removals;
+            }
+            int excess = entries.size() - lowWaterMark;
+            final List<Map.Entry<String, CacheEntry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort(Comparator.comparingLong(entry -> entry.getValue().accessedAtNanos));
+            for (int i = 0; i < candidates.size() && excess > 0; i++) {
+                final Map.Entry<String, CacheEntry> eldest = candidates.get(i);
+                if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                    removals = new Removal(eldest.getKey(), eldest.getValue().value, RemovalCause.SIZE, removals);
+                    excess--;
+                }
+            }
+        }
+        return removals;
+    }
+
+    /**
+     * Evicts all expired entries, the caller has to hold the eviction lock.
+     */
+    private Removal evictExpired(long now, Removal removals) {
+        if (expireAfterAccessNanos <= 0) {
+            return removals;
+        }
+        for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+            if (isExpired(entry.getValue(), now) && entries.remove(entry.getKey(), entry.getValue())) {
+                removals = new Removal(entry.getKey(), entry.getValue().value, RemovalCause.EXPIRED, removals);
+            }
+        }
+        return removals;
+    }
+
+    private boolean isExpired(CacheEntry entry, long now) {
+        return expireAfterAccessNanos > 0 && now - entry.accessedAtNanos >= expireAfterAccessNanos;
+    }
+
+    private void notifyListeners(Removal removals) {
+        for (Removal removal = removals; removal != null; removal = removal.next) {
+            evictionCount.increment();
+            for (EvictionListener listener : listeners) {
+                try {
+                    listener.onEviction(removal.key, removal.value, removal.cause);
+                } catch (RuntimeException ex) {
+                    Platform.get().log("Eviction listener failed for " + removal.key, Platform.WARN, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Why an authenticator was evicted.
+     */
+    public enum RemovalCause {
+        /**
+         * The cache reached its maximum size and the authenticator was the least recently used one.
+         */
+        SIZE,
+        /**
+         * The authenticator was not used for longer than the idle time.
+         */
+        EXPIRED
+    }
+
+    /**
+     * Is notified about evicted authenticators.
+     */
+    public interface EvictionListener {
+        void onEviction(String key, CachingAuthenticator authenticator, RemovalCause cause);
+    }
+
+    private static final class CacheEntry {
+        final CachingAuthenticator value;
+        volatile long accessedAtNanos;
+
+        CacheEntry(CachingAuthenticator value, long accessedAtNanos) {
+            this.value = value;
+            this.accessedAtNanos = accessedAtNanos;
+        }
+    }
+
+    /**
+     * A pending listener notification, collected while evicting.
+     */
+    private static final class Removal {
+        final String key;
+        final CachingAuthenticator value;
+        final RemovalCause cause;
+        final Removal next;
+
+        Removal(String key, CachingAuthenticator value, RemovalCause cause, Removal next) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+            this.next = next;
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package com.burgstaller.okhttp;
 
 import com.burgstaller.okhttp.digest.CachingAuthenticator;
+import okhttp3.Authenticator;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Connection;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.Route;
 import okhttp3.internal.platform.Platform;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.net.HttpURLConnection.HTTP_PROXY_AUTH;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
@@ -17,6 +25,12 @@ import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 public class AuthenticationCacheInterceptor implements Interceptor {
     private final Map<String, CachingAuthenticator> authCache;
     private final CacheKeyProvider cacheKeyProvider;
+    private volatile OkHttpClient refreshClient;
+    private final ConcurrentMap<String, Boolean> pendingRefreshes = new ConcurrentHashMap<>();
+    private volatile UploadProbe uploadProbe = UploadProbe.NONE;
+    private volatile long uploadProbeThreshold;
+    private volatile boolean probeUnknownLength;
+    private final AtomicLong savedRoundTripCount = new AtomicLong();
 
     public AuthenticationCacheInterceptor(Map<String, CachingAuthenticator> authCache, CacheKeyProvider cacheKeyProvider) {
         this.authCache = authCache;
@@ -27,6 +41,90 @@ public class AuthenticationCacheInterceptor implements Interceptor {
         this(authCache, new DefaultRequestCacheKeyProvider());
     }
 
+    /**
+     * Enables or disables the proactive refresh of cached authentication state. When enabled and the
+     * authentication of a request is about to expire (e.g. a digest nonce which is known to expire
+     * soon), an unauthenticated {@code HEAD} request to the same URL is enqueued on the given
+     * client's dispatcher and the authenticator picks up the fresh challenge from its response, so
+     * that later requests do not need to be challenged again. The request itself is sent right away
+     * with the current authentication. At most one refresh per protection space is in flight, a
+     * failed refresh is logged and otherwise ignored. Only applies to interceptors which are not used
+     * for proxies.
+     *
+     * @param client the client to send the refresh requests with, usually the one this interceptor
+     *               is installed in, {@code null} to disable the refresh. The refresh requests bypass
+     *               this interceptor and the client's authenticator.
+     */
+    public void setProactiveRefresh(OkHttpClient client) {
+        if (client == null) {
+            this.refreshClient = null;
+            return;
+        }
+        final OkHttpClient.Builder builder = client.newBuilder()
+                .authenticator(Authenticator.NONE);
+        builder.interceptors().remove(this);
+        builder.networkInterceptors().remove(this);
+        this.refreshClient = builder.build();
+    }
+
+    public boolean isProactiveRefresh() {
+        return refreshClient != null;
+    }
+
+    /**
+     * Enables probing for the authentication challenge ahead of large uploads for which no cached
+     * authentication exists, so that the body is not sent to be rejected first. Bodies of unknown
+     * length (e.g. streamed ones) are not probed, see
+     * {@link #setUploadProbe(UploadProbe, long, boolean)}. Only applies to interceptors which are
+     * not used for proxies, since network interceptors may only proceed once.
+     *
+     * @param uploadProbe      how to obtain the challenge.
+     * @param minContentLength the minimum body size in bytes for which to probe.
+     */
+    public void setUploadProbe(UploadProbe uploadProbe, long minContentLength) {
+        setUploadProbe(uploadProbe, minContentLength, false);
+    }
+
+    /**
+     * Enables probing for the authentication challenge ahead of large uploads for which no cached
+     * authentication exists, so that the body is not sent to be rejected first. Only applies to
+     * interceptors which are not used for proxies, since network interceptors may only proceed once.
+     *
+     * @param uploadProbe        how to obtain the challenge.
+     * @param minContentLength   the minimum body size in bytes for which to probe.
+     * @param probeUnknownLength {@code true} to also probe ahead of bodies of unknown length, i.e.
+     *                           to consider them large. Every such upload then costs the probe
+     *                           unless the authentication is cached, even if the body is small.
+     */
+    public void setUploadProbe(UploadProbe uploadProbe, long minContentLength, boolean probeUnknownLength) {
+        if (minContentLength < 0) {
+            throw new IllegalArgumentException("minContentLength must not be negative: " + minContentLength);
+        }
+        this.uploadProbeThreshold = minContentLength;
+        this.probeUnknownLength = probeUnknownLength;
+        this.uploadProbe = uploadProbe != null ? uploadProbe : UploadProbe.NONE;
+    }
+
+    public UploadProbe getUploadProbe() {
+        return uploadProbe;
+    }
+
+    public long getUploadProbeThreshold() {
+        return uploadProbeThreshold;
+    }
+
+    public boolean isProbeUnknownLength() {
+        return probeUnknownLength;
+    }
+
+    /**
+     * @return the number of expired cached authentications which were renewed by answering the
+     * server's challenge directly, each saving the round trip of an unauthenticated request.
+     */
+    public long getSavedRoundTripCount() {
+        return savedRoundTripCount.get();
+    }
+
     @Override
     public Response intercept(Chain chain) throws IOException {
         final Request request = chain.request();
@@ -40,12 +138,28 @@ public class AuthenticationCacheInterceptor implements Interceptor {
         Request authRequest = null;
         Connection connection = chain.connection();
         Route route = connection != null ? connection.route() : null;
+        final OkHttpClient refreshClient = this.refreshClient;
+        if (authenticator != null && refreshClient != null && !cacheKeyProvider.applyToProxy()
+                && authenticator.isRefreshDue(route, request)) {
+            refresh(refreshClient, key, authenticator, route, request);
+        }
+        final UploadProbe probe = authenticator == null && !cacheKeyProvider.applyToProxy()
+                && isLargeUpload(request) ? uploadProbe : UploadProbe.NONE;
+        if (probe == UploadProbe.HEAD_REQUEST) {
+            probe(chain, request);
+            authenticator = authCache.get(key);
+        }
         if (authenticator != null) {
             authRequest = authenticator.authenticateWithState(route, request);
         }
         if (authRequest == null) {
             authRequest = request;
         }
+        if (probe == UploadProbe.EXPECT_CONTINUE && authRequest.header("Expect") == null) {
+            authRequest = authRequest.newBuilder()
+                    .header("Expect", "100-continue")
+                    .build();
+        }
         Response response = chain.proceed(authRequest);
 
         // Cached response was used, but it produced unauthorized response (cache expired).
@@ -53,13 +167,7 @@ public class AuthenticationCacheInterceptor implements Interceptor {
 
         //authentication was against a web site
         if (authenticator != null && (!cacheKeyProvider.applyToProxy() && responseCode == HTTP_UNAUTHORIZED)) {
-            // Remove cached authenticator and resend request
-            if (authCache.remove(key) != null) {
-                response.body().close();
-                Platform.get().log("Cached authentication expired. Sending a new request.", Platform.INFO, null);
-                // Force sending a new request without "Authorization" header
-                response = chain.proceed(request);
-            }
+            response = reauthenticate(chain, authenticator, key, route, request, response);
         }
         //authentication against a proxy
         if (authenticator != null && (cacheKeyProvider.applyToProxy() && responseCode == HTTP_PROXY_AUTH)) {
@@ -68,7 +176,131 @@ public class AuthenticationCacheInterceptor implements Interceptor {
             //in this case, we don't close the request and call chain.proceed(request) another time
         }
 
+        // let the authenticator pick up e.g. the next nonce, the authenticator may have been cached while
+        // okhttp answered a challenge for this request
+        if (response != null && response.code() != HTTP_UNAUTHORIZED && response.code() != HTTP_PROXY_AUTH) {
+            final CachingAuthenticator currentAuthenticator = authCache.get(key);
+            if (currentAuthenticator != null) {
+                try {
+                    currentAuthenticator.processAuthenticationInfo(route, response);
+                } catch (IOException | RuntimeException e) {
+                    // the response is not handed out, release its connection
+                    response.close();
+                    throw e;
+                }
+            }
+        }
+
         return response;
     }
 
+    /**
+     * Answers the challenge of a 401 to a request authenticated from the cache with the cached
+     * authenticator and resends the request once, so that an expired authentication (e.g. a digest
+     * nonce) costs one additional round trip instead of two. If the authenticator cannot answer the
+     * challenge, e.g. because the server switched to another scheme, the request is resent without
+     * authorization as before and the client's authenticator takes over.
+     */
+    private Response reauthenticate(Chain chain, CachingAuthenticator authenticator, String key, Route route,
+                                    Request request, Response response) throws IOException {
+        Request reauthRequest;
+        try {
+            // present the challenge as response to the unauthenticated request, otherwise the
+            // authenticator would consider its own previous attempt as failed
+            reauthRequest = authenticator.authenticate(route, response.newBuilder().request(request).build());
+        } catch (final IOException ex) {
+            // e.g. the server switched to another authentication scheme
+            Platform.get().log("Cached authenticator cannot answer the new challenge", Platform.INFO, ex);
+            reauthRequest = null;
+        } finally {
+            if (response.body() != null) {
+                response.body().close();
+            }
+        }
+        if (reauthRequest == null) {
+            // Remove cached authenticator and resend request
+            authCache.remove(key);
+            Platform.get().log("Cached authentication expired. Sending a new request.", Platform.INFO, null);
+            // Force sending a new request without "Authorization" header
+            return chain.proceed(request);
+        }
+        Platform.get().log("Cached authentication expired. Answering the new challenge.", Platform.INFO, null);
+        final Response reauthResponse = chain.proceed(reauthRequest);
+        if (reauthResponse.code() == HTTP_UNAUTHORIZED) {
+            // the credentials were rejected, leave the challenge to the client's authenticator
+            authCache.remove(key);
+        } else {
+            savedRoundTripCount.incrementAndGet();
+        }
+        return reauthResponse;
+    }
+
+    private boolean isLargeUpload(Request request) throws IOException {
+        final RequestBody body = request.body();
+        if (body == null || uploadProbe == UploadProbe.NONE) {
+            return false;
+        }
+        final long contentLength = body.contentLength();
+        if (contentLength < 0) {
+            return probeUnknownLength;
+        }
+        return contentLength >= uploadProbeThreshold;
+    }
+
+    /**
+     * Sends a {@code HEAD} request ahead of a large upload, the client's authenticator answers its
+     * challenge and the authentication is cached before the body is sent.
+     */
+    private void probe(Chain chain, Request request) throws IOException {
+        final Request probe = request.newBuilder()
+                .head()
+                .build();
+        Platform.get().log("No cached authentication for a large upload. Sending a probe request.", Platform.INFO,
+                null);
+        final Response probeResponse = chain.proceed(probe);
+        if (probeResponse != null && probeResponse.body() != null) {
+            probeResponse.body().close();
+        }
+    }
+
+    /**
+     * Enqueues an unauthenticated {@code HEAD} request, unless one is already in flight for the
+     * protection space, and lets the authenticator pick up the fresh challenge from its response.
+     */
+    private void refresh(OkHttpClient client, final String key, final CachingAuthenticator authenticator,
+                         final Route route, Request request) {
+        if (pendingRefreshes.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        final Request probe = request.newBuilder()
+                .head()
+                .removeHeader("Authorization")
+                .build();
+        Platform.get().log("Cached authentication is about to expire. Sending a refresh request.", Platform.INFO,
+                null);
+        client.newCall(probe).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                pendingRefreshes.remove(key);
+                Platform.get().log("Refreshing the cached authentication failed", Platform.INFO, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.code() == HTTP_UNAUTHORIZED) {
+                        authenticator.authenticate(route, response);
+                    } else {
+                        authenticator.processAuthenticationInfo(route, response);
+                    }
+                } catch (final IOException | RuntimeException ex) {
+                    Platform.get().log("Refreshing the cached authentication failed", Platform.INFO, ex);
+                } finally {
+                    response.close();
+                    pendingRefreshes.remove(key);
+                }
+            }
+        });
+    }
+
 }
@@ -0,0 +1,164 @@
+package com.burgstaller.okhttp;
+
+import okhttp3.Authenticator;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.internal.platform.Platform;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+
+/**
+ * Warms up the authentication cache for a known set of origins, e.g. a fleet of devices sharing the
+ * same credentials. A {@code HEAD} request is sent to every origin on the client's dispatcher and
+ * the challenge is answered by the given {@link CachingAuthenticatorDecorator}, which caches the
+ * authentication, so that the first real request to each origin is already authenticated. The
+ * authenticated request itself is not sent, warming up an origin costs a single round trip.
+ * <p>
+ * Usage:
+ * <pre>
+ * final CachingAuthenticatorDecorator decorator = new CachingAuthenticatorDecorator(authenticator, authCache);
+ * final OkHttpClient client = new OkHttpClient.Builder()
+ *         .authenticator(decorator)
+ *         .addInterceptor(new AuthenticationCacheInterceptor(authCache))
+ *         .build();
+ * new AuthenticationPrefetcher(client, decorator, 32).prefetch(urls).join();
+ * </pre>
+ */
+public final class AuthenticationPrefetcher {
+    private final OkHttpClient client;
+    private final Authenticator authenticator;
+    private final int maxConcurrentRequests;
+    private final AtomicLong authenticatedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param client                the client whose dispatcher and configuration are used.
+     * @param authenticator         the caching authenticator answering the challenges, usually the
+     *                              {@link CachingAuthenticatorDecorator} of the client.
+     * @param maxConcurrentRequests the maximum number of prefetch requests in flight at once.
+     */
+    public AuthenticationPrefetcher(OkHttpClient client, Authenticator authenticator, int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be positive: " + maxConcurrentRequests);
+        }
+        // the challenges are answered here, the client must not send the authenticated request
+        this.client = client.newBuilder()
+                .authenticator(Authenticator.NONE)
+                .build();
+        this.authenticator = authenticator;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Fetches the challenges of the given URLs. Returns immediately, at most
+     * {@code maxConcurrentRequests} requests are in flight at any time.
+     *
+     * @param urls the URLs to prefetch, one per origin is sufficient.
+     * @return a future which completes once all URLs have been processed, failures are logged and
+     * counted but do not fail the future.
+     */
+    public CompletableFuture<Void> prefetch(Collection<String> urls) {
+        final List<Request> requests = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            requests.add(new Request.Builder()
+                    .url(url)
+                    .head()
+                    .build());
+        }
+        final Batch batch = new Batch(requests);
+        if (requests.isEmpty()) {
+            batch.completion.complete(null);
+        }
+        for (int i = 0; i < Math.min(maxConcurrentRequests, requests.size()); i++) {
+            batch.enqueueNext();
+        }
+        return batch.completion;
+    }
+
+    /**
+     * @return the number of origins whose challenge was answered.
+     */
+    public long getAuthenticatedCount() {
+        return authenticatedCount.get();
+    }
+
+    /**
+     * @return the number of origins which could not be prefetched.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * The requests of one {@link #prefetch} call, every finished request enqueues the next one.
+     */
+    private final class Batch implements Callback {
+        private final List<Request> requests;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        Batch(List<Request> requests) {
+            this.requests = requests;
+            this.remaining = new AtomicInteger(requests.size());
+        }
+
+        void enqueueNext() {
+            final int index = nextIndex.getAndIncrement();
+            if (index < requests.size()) {
+                client.newCall(requests.get(index)).enqueue(this);
+            }
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            failedCount.incrementAndGet();
+            Platform.get().log("Prefetching the authentication of " + call.request().url() + " failed",
+                    Platform.INFO, e);
+            finished();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try {
+                if (response.code() != HTTP_UNAUTHORIZED) {
+                    // no authentication required or already authenticated from the cache
+                    return;
+                }
+                if (authenticator.authenticate(null, response) != null) {
+                    authenticatedCount.incrementAndGet();
+                } else {
+                    failedCount.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException e) {
+                failedCount.incrementAndGet();
+                Platform.get().log("Answering the challenge of " + call.request().url() + " failed",
+                        Platform.INFO, e);
+            } finally {
+                if (response.body() != null) {
+                    response.body().close();
+                }
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (remaining.decrementAndGet() == 0) {
+                completion.complete(null);
+            } else {
+                enqueueNext();
+            }
+        }
+    }
+}
@@ -2,17 +2,20 @@ package com.burgstaller.okhttp;
 
 import com.burgstaller.okhttp.digest.CachingAuthenticator;
 import okhttp3.Authenticator;
+import okhttp3.HttpUrl;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 
 /**
  * An authenticator decorator which saves the generated authentication headers for a specific host.
  * To be used in tandem with {@link AuthenticationCacheInterceptor}.
- * Depending on your use case you will probably need to use a {@link java.util.concurrent.ConcurrentHashMap}.
+ * Depending on your use case you will probably need to use a {@link java.util.concurrent.ConcurrentHashMap}, or
+ * an {@link AuthCache} if the number of hosts is not bounded.
  */
 public class CachingAuthenticatorDecorator implements Authenticator {
     private final Authenticator innerAuthenticator;
@@ -33,6 +36,30 @@ public class CachingAuthenticatorDecorator implements Authenticator {
         this(innerAuthenticator, authCache, false);
     }
 
+    /**
+     * Caches the inner authenticator for the given origins without waiting for a challenge, so that
+     * {@link AuthenticationCacheInterceptor} authenticates the first request to each of them
+     * preemptively, e.g. with the sessions restored via
+     * {@link com.burgstaller.okhttp.digest.DigestAuthenticator#restoreSessions}. Has no effect for
+     * proxies or if the inner authenticator does not cache.
+     *
+     * @param origins the origin servers.
+     */
+    public void preauthenticate(Collection<HttpUrl> origins) {
+        if (cacheKeyProvider.applyToProxy() || !(innerAuthenticator instanceof CachingAuthenticator)) {
+            return;
+        }
+        // not a proxy provider, so it takes requests
+        @SuppressWarnings("unchecked") final CacheKeyProvider<Request> requestKeyProvider =
+                (CacheKeyProvider<Request>) cacheKeyProvider;
+        for (HttpUrl origin : origins) {
+            final Request request = new Request.Builder()
+                    .url(origin)
+                    .build();
+            authCache.putIfAbsent(requestKeyProvider.getCachingKey(request), (CachingAuthenticator) innerAuthenticator);
+        }
+    }
+
     @Override
     public Request authenticate(Route route, Response response) throws IOException {
         Request authenticated = innerAuthenticator.authenticate(route, response);
@@ -1,11 +1,25 @@
 package com.burgstaller.okhttp;
 
 import java.net.Proxy;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * The default version of the cache key provider, which simply calls the {@link java.net.Proxy#toString()} method to generate key.
+ * The default version of the cache key provider, which simply calls the {@link java.net.Proxy#toString()}
+ * method to generate the key, so that credentials are cached per proxy.
+ * <p>
+ * The keys are remembered per proxy, so that {@link java.net.Proxy#toString()} is only called once
+ * for every proxy.
  */
 public final class DefaultProxyCacheKeyProvider implements CacheKeyProvider<Proxy> {
+    /**
+     * The maximum number of proxies whose keys are remembered.
+     */
+    private static final int MAX_PROXIES = 256;
+
+    private final ConcurrentMap<Proxy, String> keys = new ConcurrentHashMap<>();
+
     @Override
     public boolean applyToProxy() {
         return true;
@@ -17,6 +31,20 @@ public final class DefaultProxyCacheKeyProvider implements CacheKeyProvider<Prox
      */
     @Override
     public String getCachingKey(Proxy proxy) {
-        return proxy != null ? proxy.toString() : null;
+        if (proxy == null) {
+            return null;
+        }
+        final String key = keys.get(proxy);
+        if (key != null) {
+            return key;
+        }
+        if (keys.size() >= MAX_PROXIES) {
+            final Iterator<Proxy> iterator = keys.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return keys.computeIfAbsent(proxy, Proxy::toString);
     }
 }
@@ -3,10 +3,25 @@ package com.burgstaller.okhttp;
 import okhttp3.HttpUrl;
 import okhttp3.Request;
 
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
- * The default version of the cache key provider, which simply takes the request URL / port for
+ * The default version of the cache key provider, which simply takes the scheme, host and port of
+ * the request URL as key, so that credentials are cached per origin.
+ * <p>
+ * The keys are canonical instances which are created once per origin, so that looking up the key of
+ * a request neither allocates nor rehashes a new string.
  */
 public final class DefaultRequestCacheKeyProvider implements CacheKeyProvider<Request> {
+    /**
+     * The maximum number of hosts whose keys are remembered.
+     */
+    private static final int MAX_HOSTS = 1024;
+
+    private final ConcurrentMap<String, OriginKey> keys = new ConcurrentHashMap<>();
+
     @Override
     public boolean applyToProxy() {
         return false;
@@ -23,6 +38,49 @@ public final class DefaultRequestCacheKeyProvider implements CacheKeyProvider<Re
         final HttpUrl url = request.url();
         if (url == null)
             return null;
-        return url.scheme() + ":" + url.host() + ":" + url.port();
+        final String host = url.host();
+        final String scheme = url.scheme();
+        final int port = url.port();
+        final String key = OriginKey.find(keys.get(host), scheme, port);
+        if (key != null) {
+            return key;
+        }
+        if (keys.size() >= MAX_HOSTS && !keys.containsKey(host)) {
+            final Iterator<String> iterator = keys.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return OriginKey.find(keys.compute(host, (h, head) -> OriginKey.find(head, scheme, port) != null
+                ? head
+                : new OriginKey(scheme, port, scheme + ":" + h + ":" + port, head)), scheme, port);
+    }
+
+    /**
+     * The keys of one host, a list since a host is usually only contacted via one or two schemes
+     * and ports.
+     */
+    private static final class OriginKey {
+        final String scheme;
+        final int port;
+        final String key;
+        final OriginKey next;
+
+        OriginKey(String scheme, int port, String key, OriginKey next) {
+            this.scheme = scheme;
+            this.port = port;
+            this.key = key;
+            this.next = next;
+        }
+
+        static String find(OriginKey head, String scheme, int port) {
+            for (OriginKey origin = head; origin != null; origin = origin.next) {
+                if (origin.port == port && origin.scheme.equals(scheme)) {
+                    return origin.key;
+                }
+            }
+            return null;
+        }
     }
 }
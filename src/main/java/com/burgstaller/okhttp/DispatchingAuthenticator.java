@@ -59,6 +59,23 @@ public class DispatchingAuthenticator implements CachingAuthenticator {
         return null;
     }
 
+    @Override
+    public void processAuthenticationInfo(Route route, Response response) throws IOException {
+        for (CachingAuthenticator authenticator : cachingRegistry.values()) {
+            authenticator.processAuthenticationInfo(route, response);
+        }
+    }
+
+    @Override
+    public boolean isRefreshDue(Route route, Request request) {
+        for (CachingAuthenticator authenticator : cachingRegistry.values()) {
+            if (authenticator.isRefreshDue(route, request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static final class Builder {
         Map<String, Authenticator> registry = new LinkedHashMap<>();
 
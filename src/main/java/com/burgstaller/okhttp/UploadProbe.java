@@ -0,0 +1,28 @@
+package com.burgstaller.okhttp;
+
+/**
+ * How {@link AuthenticationCacheInterceptor} obtains the authentication challenge ahead of a large
+ * upload for which no cached authentication exists, so that the request body is only sent once
+ * instead of being sent, rejected with a 401 and sent again.
+ */
+public enum UploadProbe {
+    /**
+     * Uploads are sent right away.
+     */
+    NONE,
+    /**
+     * Uploads are sent with {@code Expect: 100-continue}, so that the body is only sent once the
+     * server answered the request headers with {@code 100 Continue}. A {@code 401} is returned
+     * without the body having been sent.
+     * <p>
+     * Only use this with servers (and proxies) which honour the expectation: OkHttp does not fall
+     * back to sending the body, if the server waits for the body instead of answering the headers,
+     * the call fails with a {@link java.net.SocketTimeoutException} once the read timeout elapsed.
+     */
+    EXPECT_CONTINUE,
+    /**
+     * A {@code HEAD} request to the same URL is sent first, the client's authenticator answers its
+     * challenge and the upload is sent with the authentication cached for it.
+     */
+    HEAD_REQUEST
+}
@@ -2,6 +2,7 @@ package com.burgstaller.okhttp.digest;
 
 import okhttp3.Authenticator;
 import okhttp3.Request;
+import okhttp3.Response;
 import okhttp3.Route;
 
 import java.io.IOException;
@@ -20,4 +21,31 @@ public interface CachingAuthenticator extends Authenticator {
      * @throws IOException in case of a communication problem
      */
     Request authenticateWithState(Route route, Request request) throws IOException;
+
+    /**
+     * Processes the authentication information (e.g. {@code Authentication-Info}) which the server
+     * sent along with a response to an authenticated request. This allows to update the cached state,
+     * e.g. to switch to the next nonce before the current one expires. The default implementation
+     * does nothing.
+     *
+     * @param route    the route to use
+     * @param response the response to a request which was authenticated by this authenticator.
+     * @throws IOException in case the response could not be authenticated
+     */
+    default void processAuthenticationInfo(Route route, Response response) throws IOException {
+    }
+
+    /**
+     * Checks whether the cached state used for the given request is about to expire, so that it
+     * should be refreshed before sending the request. Implementations may report the same state due
+     * only once, the caller is expected to refresh it. The default implementation returns
+     * {@code false}.
+     *
+     * @param route   the route to use
+     * @param request the new request to be authenticated.
+     * @return {@code true} if the cached state should be refreshed.
+     */
+    default boolean isRefreshDue(Route route, Request request) {
+        return false;
+    }
 }
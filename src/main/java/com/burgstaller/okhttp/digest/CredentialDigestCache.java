@@ -0,0 +1,104 @@
+package com.burgstaller.okhttp.digest;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A small bounded cache for hashes derived from {@link Credentials}, e.g.
+ * {@code H(username ":" realm ":" password)}. The cache is cleared as soon as the username or
+ * password of the credentials change.
+ */
+final class CredentialDigestCache {
+    private final Credentials credentials;
+    private final int maxSize;
+    private final ConcurrentMap<Key, String> entries = new ConcurrentHashMap<>();
+    private volatile int generation;
+
+    CredentialDigestCache(Credentials credentials, int maxSize) {
+        this.credentials = credentials;
+        this.maxSize = maxSize;
+        this.generation = credentials.getGeneration();
+    }
+
+    /**
+     * @return the cached hash or {@code null} if it was not computed yet for the current credentials.
+     */
+    String get(String userName, String realm, String algorithm, String charset) {
+        if (!isCurrent()) {
+            return null;
+        }
+        return entries.get(new Key(userName, realm, algorithm, charset));
+    }
+
+    /**
+     * Stores the given hash which was computed from the credentials of the given generation.
+     */
+    void put(int generation, String userName, String realm, String algorithm, String charset, String hash) {
+        if (!isCurrent() || generation != this.generation) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            final Iterator<Key> iterator = entries.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        entries.put(new Key(userName, realm, algorithm, charset), hash);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private boolean isCurrent() {
+        final int currentGeneration = credentials.getGeneration();
+        if (currentGeneration != generation) {
+            entries.clear();
+            generation = currentGeneration;
+            return false;
+        }
+        return true;
+    }
+
+    private static final class Key {
+        private final String userName;
+        private final String realm;
+        private final String algorithm;
+        private final String charset;
+        private final int hash;
+
+        Key(String userName, String realm, String algorithm, String charset) {
+            this.userName = userName;
+            this.realm = realm;
+            this.algorithm = algorithm;
+            this.charset = charset;
+            int h = userName.hashCode();
+            h = 31 * h + (realm != null ? realm.hashCode() : 0);
+            h = 31 * h + algorithm.hashCode();
+            h = 31 * h + charset.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return userName.equals(other.userName)
+                    && (realm != null ? realm.equals(other.realm) : other.realm == null)
+                    && algorithm.equals(other.algorithm)
+                    && charset.equals(other.charset);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
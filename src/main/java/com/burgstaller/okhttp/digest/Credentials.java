@@ -1,11 +1,14 @@
 package com.burgstaller.okhttp.digest;
 
+import java.util.Objects;
+
 /**
  * Simple credentials class holding Username / Password.
  */
 public class Credentials {
     private String userName;
     private String password;
+    private volatile int generation;
 
     public Credentials(String userName, String password) {
         if (userName == null || password == null) {
@@ -20,7 +23,10 @@ public class Credentials {
     }
 
     public void setUserName(String userName) {
-        this.userName = userName;
+        if (!Objects.equals(this.userName, userName)) {
+            this.userName = userName;
+            generation++;
+        }
     }
 
     public String getPassword() {
@@ -28,6 +34,19 @@ public class Credentials {
     }
 
     public void setPassword(String password) {
-        this.password = password;
+        if (!Objects.equals(this.password, password)) {
+            this.password = password;
+            generation++;
+        }
+    }
+
+    /**
+     * Returns a counter which changes whenever the username or password changes, this allows
+     * authenticators to invalidate values derived from these credentials.
+     *
+     * @return the current generation of these credentials.
+     */
+    int getGeneration() {
+        return generation;
     }
 }
@@ -0,0 +1,204 @@
+package com.burgstaller.okhttp.digest;
+
+import com.burgstaller.okhttp.digest.fromhttpclient.UnsupportedDigestAlgorithmException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A digest algorithm as named by the {@code algorithm} parameter of a challenge, e.g. {@code MD5},
+ * {@code SHA-256-sess} or {@code SHA-512-256} (RFC 7616, section 3.2). Every {@code -sess} variant
+ * uses the hash of its base algorithm.
+ * <p>
+ * The hash behind additional algorithm tokens is pluggable via the JVM wide
+ * {@link #register(String, String, EngineFactory)}, tokens which were not registered are passed to
+ * {@link MessageDigest#getInstance(String)} as they are. Resolved tokens are cached.
+ */
+public final class DigestAlgorithm {
+    private static final String SESSION_SUFFIX = "-SESS";
+    /**
+     * Tokens are sent by the server, the number of cached resolutions is limited so that a server
+     * cannot fill the cache with made up tokens.
+     */
+    private static final int MAX_RESOLVED = 64;
+    private static final ConcurrentMap<String, Registration> REGISTRY = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, DigestAlgorithm> RESOLVED = new ConcurrentHashMap<>();
+
+    private static final Set<String> BUILT_IN;
+
+    static {
+        REGISTRY.put("MD5", new Registration("MD5", null));
+        REGISTRY.put("SHA-256", new Registration("SHA-256", null));
+        REGISTRY.put("SHA-512-256", new Registration("SHA-512/256", null));
+        BUILT_IN = Collections.unmodifiableSet(new HashSet<>(REGISTRY.keySet()));
+    }
+
+    private final String token;
+    private final String hashName;
+    private final boolean session;
+    private final EngineFactory factory;
+    private volatile Boolean available;
+
+    private DigestAlgorithm(String token, String hashName, boolean session, EngineFactory factory) {
+        this.token = token;
+        this.hashName = hashName;
+        this.session = session;
+        this.factory = factory;
+    }
+
+    /**
+     * Creates new engines for a hash.
+     */
+    public interface EngineFactory {
+        /**
+         * @return a new engine in its initial state.
+         * @throws NoSuchAlgorithmException if the hash is not available.
+         */
+        MessageDigest create() throws NoSuchAlgorithmException;
+    }
+
+    /**
+     * Resolves the given algorithm token, case insensitively.
+     *
+     * @param token the algorithm token of a challenge, e.g. {@code SHA-256-sess}.
+     * @return the algorithm, never {@code null}. Whether its hash is actually available only turns
+     * out when an engine is created.
+     */
+    public static DigestAlgorithm forToken(String token) {
+        final String key = token.toUpperCase(Locale.US);
+        final DigestAlgorithm resolved = RESOLVED.get(key);
+        if (resolved != null) {
+            return resolved;
+        }
+        final boolean session = key.endsWith(SESSION_SUFFIX);
+        final String base = session ? key.substring(0, key.length() - SESSION_SUFFIX.length()) : key;
+        final Registration registration = REGISTRY.get(base);
+        final DigestAlgorithm algorithm;
+        if (registration != null) {
+            algorithm = new DigestAlgorithm(token, registration.hashName, session, registration.factory);
+        } else {
+            algorithm = new DigestAlgorithm(token, token.substring(0, base.length()), session, null);
+        }
+        if (RESOLVED.size() < MAX_RESOLVED) {
+            RESOLVED.putIfAbsent(key, algorithm);
+        }
+        return algorithm;
+    }
+
+    /**
+     * Registers the hash for the given base algorithm token, the {@code -sess} variant of the token
+     * is supported automatically.
+     * <p>
+     * The registry is global: the registration applies to every {@link DigestAuthenticator} in the
+     * JVM, including challenges which are already being answered, and cannot be undone. The tokens
+     * defined by RFC 7616 ({@code MD5}, {@code SHA-256} and {@code SHA-512-256}) cannot be
+     * registered, so that their hashes cannot be replaced behind the back of other users.
+     *
+     * @param token    the base algorithm token, e.g. {@code SHA3-256}, without {@code -sess}.
+     * @param hashName the name of the hash, engines are pooled under it.
+     * @param factory  creates the engines, {@code null} to use {@link MessageDigest#getInstance(String)}.
+     * @throws IllegalArgumentException if the token is one of the built-in tokens or a {@code -sess}
+     *                                  variant.
+     */
+    public static void register(String token, String hashName, EngineFactory factory) {
+        final String key = token.toUpperCase(Locale.US);
+        if (BUILT_IN.contains(key)) {
+            throw new IllegalArgumentException("built-in algorithm cannot be replaced: " + token);
+        }
+        if (key.endsWith(SESSION_SUFFIX)) {
+            throw new IllegalArgumentException("register the base algorithm instead of: " + token);
+        }
+        REGISTRY.put(key, new Registration(hashName, factory));
+        RESOLVED.clear();
+    }
+
+    /**
+     * Removes the registration of the given base algorithm token, the built-in tokens are kept.
+     * Package private, so that tests do not leave registrations behind in the global registry.
+     *
+     * @param token the base algorithm token which was passed to {@link #register}.
+     */
+    static void unregister(String token) {
+        final String key = token.toUpperCase(Locale.US);
+        if (!BUILT_IN.contains(key)) {
+            REGISTRY.remove(key);
+            RESOLVED.clear();
+        }
+    }
+
+    /**
+     * @return the algorithm token as sent by the server.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the name of the hash, e.g. {@code SHA-512/256} for {@code SHA-512-256-sess}.
+     */
+    public String getHashName() {
+        return hashName;
+    }
+
+    /**
+     * @return {@code true} for the {@code -sess} variants, whose H(A1) also covers nonce and cnonce.
+     */
+    public boolean isSession() {
+        return session;
+    }
+
+    /**
+     * Creates a new engine for this algorithm, use {@link MessageDigestPool#acquire(DigestAlgorithm)}
+     * to reuse engines.
+     *
+     * @return a new engine.
+     * @throws UnsupportedDigestAlgorithmException if the hash is not available.
+     */
+    public MessageDigest newEngine() {
+        try {
+            return factory != null ? factory.create() : MessageDigest.getInstance(hashName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnsupportedDigestAlgorithmException(
+                    "Unsupported algorithm in HTTP Digest authentication: " + token, e);
+        }
+    }
+
+    /**
+     * @return {@code true} if engines can be created for this algorithm. The result is determined
+     * once by creating an engine.
+     */
+    public boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            try {
+                newEngine();
+                result = Boolean.TRUE;
+            } catch (UnsupportedDigestAlgorithmException e) {
+                result = Boolean.FALSE;
+            }
+            available = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return token;
+    }
+
+    private static final class Registration {
+        private final String hashName;
+        private final EngineFactory factory;
+
+        Registration(String hashName, EngineFactory factory) {
+            this.hashName = hashName;
+            this.factory = factory;
+        }
+    }
+}
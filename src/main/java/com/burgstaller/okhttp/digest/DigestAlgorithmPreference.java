@@ -0,0 +1,68 @@
+package com.burgstaller.okhttp.digest;
+
+/**
+ * Decides which challenge to answer when a server offers several {@code Digest} challenges with
+ * different algorithms (RFC 7616, section 3.7). Challenges whose hash is not available are never
+ * chosen, among equally ranked challenges the one sent first wins.
+ */
+public enum DigestAlgorithmPreference {
+    /**
+     * Answers the first challenge, as sent by the server.
+     */
+    SERVER_ORDER {
+        @Override
+        int rank(DigestAlgorithm algorithm) {
+            return 0;
+        }
+    },
+    /**
+     * Prefers the strongest hash: {@code SHA-512-256}, {@code SHA-256}, then {@code MD5}.
+     */
+    STRONGEST_FIRST {
+        @Override
+        int rank(DigestAlgorithm algorithm) {
+            switch (algorithm.getHashName()) {
+                case "SHA-512/256":
+                    return 3;
+                case "SHA-256":
+                    return 2;
+                case "MD5":
+                    return 0;
+                default:
+                    return 1;
+            }
+        }
+    },
+    /**
+     * Prefers the cheapest hash for CPU bound clients: {@code MD5}, {@code SHA-256}, then
+     * {@code SHA-512-256}. SHA-256 comes first since it is far more commonly hardware accelerated
+     * (e.g. ARMv8 crypto extensions). The {@code -sess} variants rank below their base algorithm
+     * since they need an additional hash per request.
+     */
+    FASTEST_FIRST {
+        @Override
+        int rank(DigestAlgorithm algorithm) {
+            final int rank;
+            switch (algorithm.getHashName()) {
+                case "MD5":
+                    rank = 8;
+                    break;
+                case "SHA-256":
+                    rank = 6;
+                    break;
+                case "SHA-512/256":
+                    rank = 4;
+                    break;
+                default:
+                    rank = 2;
+                    break;
+            }
+            return algorithm.isSession() ? rank - 1 : rank;
+        }
+    };
+
+    /**
+     * @return the rank of the given algorithm, higher ranks are preferred.
+     */
+    abstract int rank(DigestAlgorithm algorithm);
+}
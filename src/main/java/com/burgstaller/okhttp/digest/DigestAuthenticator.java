@@ -20,13 +20,10 @@
 
 package com.burgstaller.okhttp.digest;
 
-import com.burgstaller.okhttp.digest.fromhttpclient.BasicHeaderValueFormatter;
 import com.burgstaller.okhttp.digest.fromhttpclient.BasicHeaderValueParser;
-import com.burgstaller.okhttp.digest.fromhttpclient.BasicNameValuePair;
 import com.burgstaller.okhttp.digest.fromhttpclient.CharArrayBuffer;
 import com.burgstaller.okhttp.digest.fromhttpclient.HeaderElement;
 import com.burgstaller.okhttp.digest.fromhttpclient.HttpEntityDigester;
-import com.burgstaller.okhttp.digest.fromhttpclient.NameValuePair;
 import com.burgstaller.okhttp.digest.fromhttpclient.ParserCursor;
 import com.burgstaller.okhttp.digest.fromhttpclient.UnsupportedDigestAlgorithmException;
 import okhttp3.Headers;
@@ -38,23 +35,26 @@ import okhttp3.Route;
 import okhttp3.internal.platform.Platform;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.net.Proxy;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Formatter;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Digest authenticator which is more or less the same code ripped out of Apache
@@ -66,12 +66,17 @@ public class DigestAuthenticator implements CachingAuthenticator {
     public static final String PROXY_AUTH_RESP = "Proxy-Authorization";
     public static final String WWW_AUTH = "WWW-Authenticate";
     public static final String WWW_AUTH_RESP = "Authorization";
+    public static final String AUTH_INFO = "Authentication-Info";
+    public static final String PROXY_AUTH_INFO = "Proxy-Authentication-Info";
 
     private static final String CREDENTIAL_CHARSET = "http.auth.credential-charset";
     private static final int QOP_UNKNOWN = -1;
     private static final int QOP_MISSING = 0;
     private static final int QOP_AUTH_INT = 1;
     private static final int QOP_AUTH = 2;
+    private static final int MAX_CREDENTIAL_DIGESTS = 64;
+    private static final int MAX_SESSIONS = 10000;
+    private static final int MAX_FILE_DIGESTS = 64;
     /**
      * Hexa values used when creating 32 character long digest in HTTP DigestScheme
      * in case of authentication.
@@ -81,40 +86,52 @@ public class DigestAuthenticator implements CachingAuthenticator {
     private static final char[] HEXADECIMAL = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
             'e', 'f'};
     private final Random random;
+    private final MessageDigestPool digestPool = MessageDigestPool.getDefault();
+    private final DigestChallengeCache challengeCache = DigestChallengeCache.getDefault();
     private final Credentials credentials;
-    private final AtomicReference<Map<String, String>> parametersRef = new AtomicReference<>();
+    /**
+     * The nonce sessions keyed by protection space, i.e. the origin server or the proxy.
+     */
+    private final ConcurrentMap<String, NonceSession> sessions = new ConcurrentHashMap<>();
+    /**
+     * The learned nonce lifetimes keyed by protection space.
+     */
+    private final ConcurrentMap<String, NonceLifetime> lifetimes = new ConcurrentHashMap<>();
+    private final CredentialDigestCache credentialDigestCache;
+    private final CredentialDigestCache userHashCache;
+    private final DigestChallengeSelector challengeSelector = new DigestChallengeSelector(MAX_SESSIONS);
+    private final FileDigestCache fileDigestCache = new FileDigestCache(MAX_FILE_DIGESTS);
+    private final EntityDigestCache entityDigestCache = new EntityDigestCache();
     private final Charset credentialsCharset;
-    private String lastNonce;
-    private long nounceCount;
-    private String cnonce;
-    private String a1;
-    private String a2;
-    private boolean proxy;
+    private final AtomicLong coalescedChallengeCount = new AtomicLong();
+    private final AtomicLong nonceRotationCount = new AtomicLong();
+    private volatile boolean proxy;
+    private volatile boolean singleFlightChallenges = true;
+    private volatile boolean verifyResponseAuth;
+    private volatile DigestSessionStore sessionStore;
 
     public DigestAuthenticator(Credentials credentials) {
         this.credentials = credentials;
         this.credentialsCharset = StandardCharsets.US_ASCII;
         this.random = new SecureRandom();
+        this.credentialDigestCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
+        this.userHashCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
     }
 
     public DigestAuthenticator(Credentials credentials, Charset credentialsCharset) {
         this.credentials = credentials;
         this.credentialsCharset = credentialsCharset;
         this.random = new SecureRandom();
+        this.credentialDigestCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
+        this.userHashCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
     }
 
     public DigestAuthenticator(Credentials credentials, Charset credentialsCharset, Random random) {
         this.credentials = credentials;
         this.credentialsCharset = credentialsCharset;
         this.random = random;
-    }
-
-    private MessageDigest createMessageDigest(final String digAlg) {
-        try {
-            return MessageDigest.getInstance(digAlg);
-        } catch (final Exception e) {
-            throw new IllegalArgumentException("Unsupported algorithm in HTTP Digest authentication: " + digAlg, e);
-        }
+        this.credentialDigestCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
+        this.userHashCache = new CredentialDigestCache(credentials, MAX_CREDENTIAL_DIGESTS);
     }
 
     /**
@@ -166,29 +183,254 @@ public class DigestAuthenticator implements CachingAuthenticator {
     }
 
     @Override
-    public synchronized Request authenticate(Route route, Response response) throws IOException {
-        String header = findDigestHeader(response.headers(), getHeaderName(response.code()));
+    public Request authenticate(Route route, Response response) throws IOException {
+        final boolean proxy = response.code() == 407;
+        final Request request = response.request();
+        final String key = getSessionKey(route, request, proxy);
+        String header = findDigestHeader(response.headers(), getHeaderName(response.code()), key);
         if (header == null) {
             return null;
         }
-        // note that it might be that at the time where we set the parametersRef we already have someone in parallel
-        // trying to access it, therefore we use a concurrent map to avoid concurrent modification exceptions
-        // if 2 requests happen at the same time while we are still negotiating the nonce etc, we will do the
-        // negotiation handshake multiple times, well this cannot be helped really. One of the contestants will win
-        Map<String, String> parameters = new ConcurrentHashMap<>();
-        parseChallenge(header, 7, header.length() - 7, parameters);
-        // first copy all request headers to our params array
-        copyHeaderMap(response.headers(), parameters);
-        // save these parameters so future requests don't need the challenge response
-        // every time
-        parametersRef.set(Collections.unmodifiableMap(parameters));
+        final DigestChallenge challenge = challengeCache.get(header,
+                hasLowerCaseProxyAuthenticateHeader(response.headers()));
 
         // sanity check for issue #22
-        if (parameters.get("nonce") == null) {
+        if (challenge.getNonce() == null) {
             throw new IOException("missing nonce in challenge header: " + header);
         }
+        // save the challenge so future requests to the same protection space don't need the challenge
+        // response every time
+        final String previousNonce = getPreviousNonce(request, proxy);
+        if (challenge.isStale()) {
+            learnNonceLifetime(key, proxy, previousNonce);
+        }
+        final NonceSession session = updateSession(key, challenge, proxy, previousNonce,
+                response.sentRequestAtMillis());
+        persist(key, session);
+
+        return authenticateWithState(route, request, session, challenge.isStale());
+    }
+
+    /**
+     * Challenges which were delivered with a lower case {@code proxy-authenticate} header name (e.g. via
+     * HTTP/2) are answered for a {@code CONNECT} request.
+     */
+    private boolean hasLowerCaseProxyAuthenticateHeader(Headers headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            if ("proxy-authenticate".equals(headers.name(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Installs a new session for the given challenge unless the protection space already has a
+     * session for the same nonce.
+     * <p>
+     * When many requests fail at the same time (e.g. because the nonce expired) each of them
+     * delivers a challenge. In single flight mode only the first one replaces the session, all
+     * challenges for requests which were sent before that session existed reuse it.
+     *
+     * @param key                 the protection space
+     * @param challenge           the challenge which was just received
+     * @param proxy               {@code true} if the challenge was sent by a proxy
+     * @param previousNonce       the nonce the challenged request was sent with, {@code null} if none
+     * @param sentRequestAtMillis the time the request was sent, {@code 0} if unknown
+     * @return the session to be used for the retry of the request
+     */
+    private NonceSession updateSession(final String key, final DigestChallenge challenge, final boolean proxy,
+                                       final String previousNonce, final long sentRequestAtMillis) {
+        evictIfFull(sessions, key);
+        return sessions.compute(key, (k, current) -> {
+            if (current != null && current.isProxy() == proxy) {
+                if (singleFlightChallenges && isNewerThanRequest(current, previousNonce, sentRequestAtMillis)) {
+                    coalescedChallengeCount.incrementAndGet();
+                    return current;
+                }
+                if (current.getNonce().equals(challenge.getNonce())) {
+                    return current;
+                }
+            }
+            return new NonceSession(challenge, proxy, createCnonce());
+        });
+    }
+
+    /**
+     * Appends a newly established session to the session store, if there is one.
+     */
+    private void persist(final String key, final NonceSession session) {
+        final DigestSessionStore store = sessionStore;
+        if (store != null && session.markPersisted()) {
+            store.append(key, session);
+        }
+    }
+
+    /**
+     * Appends the session to the session store again once it used up half of its reserved nonce
+     * counts, see {@link DigestSessionStore}.
+     */
+    private void persistNonceCount(final Route route, final Request request, final NonceSession session) {
+        final DigestSessionStore store = sessionStore;
+        if (store != null && DigestSessionStore.isReservationLow(session)) {
+            final String key = getSessionKey(route, request, session.isProxy());
+            // a replaced session must not supersede the record of its successor
+            if (sessions.get(key) == session) {
+                store.append(key, session);
+            }
+        }
+    }
+
+    /**
+     * Restores the nonce sessions persisted in the given store and persists all sessions established
+     * from now on to it. Sessions which already exist in this authenticator are kept. The store is
+     * compacted right away, dropping superseded and torn records.
+     * <p>
+     * The restored sessions are only used for preemptive authentication if this authenticator is
+     * cached for their origins, see {@link com.burgstaller.okhttp.CachingAuthenticatorDecorator#preauthenticate}.
+     * If a restored nonce is rejected the server's challenge is answered as usual.
+     *
+     * @param store the store.
+     * @return the origin servers (not proxies) for which sessions were restored.
+     * @throws IOException if the store could not be read or compacted.
+     */
+    public List<HttpUrl> restoreSessions(DigestSessionStore store) throws IOException {
+        final List<HttpUrl> origins = new ArrayList<>();
+        for (Map.Entry<String, NonceSession> entry : store.load().entrySet()) {
+            final NonceSession restored = entry.getValue();
+            restored.markPersisted();
+            evictIfFull(sessions, entry.getKey());
+            if (sessions.putIfAbsent(entry.getKey(), restored) == null && !restored.isProxy()) {
+                final HttpUrl origin = parseOriginKey(entry.getKey());
+                if (origin != null) {
+                    origins.add(origin);
+                }
+            }
+        }
+        store.compact(new HashMap<>(sessions));
+        for (NonceSession session : sessions.values()) {
+            session.markPersisted();
+        }
+        sessionStore = store;
+        return origins;
+    }
+
+    /**
+     * Rewrites the session store with the current sessions, dropping superseded records. Sessions
+     * are appended to the store in the background as they are established and as their nonce
+     * counts advance. Call this e.g. before shutting down, so that the store does not grow
+     * indefinitely and no queued record is lost.
+     *
+     * @throws IOException if the store could not be written.
+     * @throws IllegalStateException if no store was set via {@link #restoreSessions(DigestSessionStore)}.
+     */
+    public void saveSessions() throws IOException {
+        final DigestSessionStore store = sessionStore;
+        if (store == null) {
+            throw new IllegalStateException("No session store, call restoreSessions first");
+        }
+        store.compact(new HashMap<>(sessions));
+    }
+
+    /**
+     * Records the lifetime of the session of the given protection space if the stale challenge
+     * refers to its nonce.
+     */
+    private void learnNonceLifetime(final String key, final boolean proxy, final String previousNonce) {
+        final NonceSession expired = sessions.get(key);
+        if (expired == null || expired.isProxy() != proxy || !expired.getNonce().equals(previousNonce)) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        evictIfFull(lifetimes, key);
+        lifetimes.compute(key, (k, previous) -> NonceLifetime.observe(previous, expired, now));
+    }
+
+    /**
+     * Removes an arbitrary entry from the given table if it is full and does not contain the key yet.
+     */
+    private static void evictIfFull(final ConcurrentMap<String, ?> table, final String key) {
+        if (table.size() >= MAX_SESSIONS && !table.containsKey(key)) {
+            final Iterator<String> iterator = table.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given session was established after the given request was sent, i.e. the
+     * request failed with an older nonce or without any authorization at all.
+     */
+    private static boolean isNewerThanRequest(NonceSession session, String previousNonce, long sentRequestAtMillis) {
+        if (previousNonce != null) {
+            return !previousNonce.equals(session.getNonce());
+        }
+        return sentRequestAtMillis > 0 && session.getCreatedAtMillis() >= sentRequestAtMillis;
+    }
+
+    /**
+     * @return the nonce of the digest authorization the given request was sent with or {@code null}
+     * if it was not digest authenticated.
+     */
+    private static String getPreviousNonce(Request request, boolean proxy) {
+        final String authorization = request.header(proxy ? PROXY_AUTH_RESP : WWW_AUTH_RESP);
+        if (authorization == null || !authorization.startsWith("Digest")) {
+            return null;
+        }
+        int index = authorization.indexOf("nonce=\"");
+        while (index > 0) {
+            final char previous = authorization.charAt(index - 1);
+            if (previous == ' ' || previous == ',') {
+                final int start = index + 7;
+                final int end = authorization.indexOf('"', start);
+                return end > 0 ? authorization.substring(start, end) : null;
+            }
+            index = authorization.indexOf("nonce=\"", index + 7);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key of the protection space of the given request. Origin servers are identified by
+     * scheme, host and port, proxies by their socket address.
+     */
+    private String getSessionKey(Route route, Request request, boolean proxy) {
+        if (proxy) {
+            final Proxy routeProxy = route != null ? route.proxy() : null;
+            if (routeProxy != null && routeProxy.address() != null) {
+                return "proxy " + routeProxy.address();
+            }
+            return "proxy " + getOriginKey(request.url());
+        }
+        return getOriginKey(request.url());
+    }
 
-        return authenticateWithState(route, response.request(), parameters);
+    private static String getOriginKey(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ':' + url.port();
+    }
+
+    /**
+     * The inverse of {@link #getOriginKey(HttpUrl)}.
+     *
+     * @return the origin, {@code null} if the key is not an origin key.
+     */
+    private static HttpUrl parseOriginKey(String key) {
+        final int schemeEnd = key.indexOf("://");
+        final int portStart = key.lastIndexOf(':');
+        if (schemeEnd <= 0 || portStart <= schemeEnd + 3) {
+            return null;
+        }
+        try {
+            return new HttpUrl.Builder()
+                    .scheme(key.substring(0, schemeEnd))
+                    .host(key.substring(schemeEnd + 3, portStart))
+                    .port(Integer.parseInt(key.substring(portStart + 1)))
+                    .build();
+        } catch (final IllegalArgumentException ex) {
+            return null;
+        }
     }
 
     private String getHeaderName(int httpStatus) {
@@ -203,13 +445,23 @@ public class DigestAuthenticator implements CachingAuthenticator {
         return "";
     }
 
-    private String findDigestHeader(Headers headers, String name) throws IOException {
+    /**
+     * Finds the digest challenge to answer. If the server sent several, the algorithm preference decides.
+     */
+    private String findDigestHeader(Headers headers, String name, String key) throws IOException {
         final List<String> authHeaders = headers.values(name);
+        List<String> digestHeaders = null;
         for (String header : authHeaders) {
             if (header.startsWith("Digest")) {
-                return header;
+                if (digestHeaders == null) {
+                    digestHeaders = new ArrayList<>(2);
+                }
+                digestHeaders.add(header);
             }
         }
+        if (digestHeaders != null) {
+            return challengeSelector.select(key, digestHeaders);
+        }
         // note that we dont support preemtive auth for now
         if (authHeaders.contains("OkHttp-Preemptive")) {
             return null;
@@ -219,54 +471,180 @@ public class DigestAuthenticator implements CachingAuthenticator {
 
     @Override
     public Request authenticateWithState(Route route, Request request) throws IOException {
-        // make sure we don't modify the values in shared parametersRef instance
-        Map<String, String> ref = parametersRef.get();
-        Map<String, String> parameters = ref == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(ref);
-        return authenticateWithState(route, request, parameters);
+        NonceSession session = sessions.get(getSessionKey(route, request, false));
+        if (session == null) {
+            session = sessions.get(getSessionKey(route, request, true));
+        }
+        if (session == null) {
+            // this authenticator was not challenged for this protection space yet (e.g. if you configured the
+            // DispatchingAuthenticator).
+            return null;
+        }
+        return authenticateWithState(route, request, session, session.getChallenge().isStale());
     }
 
-    private Request authenticateWithState(Route route, Request request, Map<String, String> parameters)
+    /**
+     * Checks whether the nonce used for the given request is about to expire, based on the lifetime
+     * of the nonces which previously expired in the same protection space. A session is reported due
+     * only once: if the refresh does not rotate the nonce (e.g. the server repeats it or the refresh
+     * fails), the session is used until it actually expires instead of triggering another refresh
+     * with every request.
+     */
+    @Override
+    public boolean isRefreshDue(Route route, Request request) {
+        final long now = System.currentTimeMillis();
+        for (boolean proxy : new boolean[]{false, true}) {
+            final String key = getSessionKey(route, request, proxy);
+            final NonceSession session = sessions.get(key);
+            final NonceLifetime lifetime = lifetimes.get(key);
+            if (session != null && lifetime != null && lifetime.isRefreshDue(session, now)
+                    && session.requestRefresh()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the learned lifetime of the nonces of the origin server of the given request.
+     *
+     * @param route   the route to use
+     * @param request the request identifying the protection space.
+     * @return the lifetime in milliseconds or {@code -1} if no nonce has expired yet.
+     */
+    public long getNonceLifetimeMillis(Route route, Request request) {
+        final NonceLifetime lifetime = lifetimes.get(getSessionKey(route, request, false));
+        return lifetime != null ? lifetime.getLifetimeMillis() : -1;
+    }
+
+    /**
+     * Switches the session of the protection space to the {@code nextnonce} announced in the
+     * {@code Authentication-Info} header (RFC 7616, section 3.5), so that the next request does not
+     * need to be challenged again once the current nonce expires. If enabled, the {@code rspauth}
+     * of the server is verified as well.
+     */
+    @Override
+    public void processAuthenticationInfo(Route route, Response response) throws IOException {
+        final Request request = response.request();
+        processAuthenticationInfo(route, response, request, false);
+        processAuthenticationInfo(route, response, request, true);
+    }
+
+    private void processAuthenticationInfo(Route route, Response response, Request request, boolean proxy)
+            throws IOException {
+        final String info = response.header(proxy ? PROXY_AUTH_INFO : AUTH_INFO);
+        if (info == null || info.trim().isEmpty()) {
+            return;
+        }
+        final String key = getSessionKey(route, request, proxy);
+        final NonceSession session = sessions.get(key);
+        final String previousNonce = getPreviousNonce(request, proxy);
+        if (session == null || session.isProxy() != proxy || !session.getNonce().equals(previousNonce)) {
+            // the response belongs to a request which was sent with an outdated nonce
+            return;
+        }
+        final Map<String, String> parameters = new HashMap<>();
+        parseChallenge(info, 0, info.length(), parameters);
+        if (verifyResponseAuth) {
+            verifyResponseAuth(request, session, parameters.get("rspauth"), proxy);
+        }
+        final String nextNonce = parameters.get("nextnonce");
+        if (nextNonce != null && !nextNonce.equals(session.getNonce())) {
+            final NonceSession next = new NonceSession(session.getChallenge().withNonce(nextNonce), proxy,
+                    createCnonce());
+            if (sessions.replace(key, session, next)) {
+                nonceRotationCount.incrementAndGet();
+                persist(key, next);
+            }
+        }
+    }
+
+    /**
+     * Verifies the {@code rspauth} of the server, which proves that the server knows the credentials
+     * as well. Only {@code qop=auth} and responses without qop can be verified as {@code auth-int}
+     * would require the digest of the response body.
+     */
+    private void verifyResponseAuth(Request request, NonceSession session, String rspauth, boolean proxy)
             throws IOException {
-        final String realm = parameters.get("realm");
-        if (realm == null) {
+        final String authorization = request.header(proxy ? PROXY_AUTH_RESP : WWW_AUTH_RESP);
+        final Map<String, String> sent = new HashMap<>();
+        parseChallenge(authorization, 7, authorization.length() - 7, sent);
+        final String qop = sent.get("qop");
+        if ("auth-int".equalsIgnoreCase(qop)) {
+            Platform.get().log("Cannot verify rspauth for qop auth-int, skipping", Platform.INFO, null);
+            return;
+        }
+        if (rspauth == null) {
+            throw new AuthenticationException("Missing rspauth in authentication info");
+        }
+        final DigestChallenge challenge = session.getChallenge();
+        String charset = challenge.getCharset();
+        if (charset == null) {
+            charset = getCredentialsCharset(request);
+        }
+        final String nonce = sent.get("nonce");
+        final DigestAlgorithm algorithm = challenge.getDigestAlgorithm();
+        final MessageDigest digester = acquireDigester(algorithm);
+        try {
+            final String hasha1 = getHa1(digester, challenge.getRealm(), algorithm, nonce,
+                    sent.get("cnonce"), charset);
+            // the method is omitted from A2 for the response-auth
+            final DigestHeaderWriter writer = DigestHeaderWriter.get();
+            final byte[] hasha2 = writer.input(':').input(sent.get("uri")).digestInput(digester);
+            if (qop == null) {
+                writer.input(hasha1).input(':').input(nonce).input(':').inputHex(hasha2);
+            } else {
+                writer.input(hasha1).input(':').input(nonce).input(':').input(sent.get("nc")).input(':')
+                        .input(sent.get("cnonce")).input(':').input(qop).input(':').inputHex(hasha2);
+            }
+            final String expected = encode(writer.digestInput(digester));
+            if (!expected.equalsIgnoreCase(rspauth)) {
+                throw new AuthenticationException("Server response authentication failed");
+            }
+        } finally {
+            digestPool.release(algorithm, digester);
+        }
+    }
+
+    private Request authenticateWithState(Route route, Request request, NonceSession session, boolean isStale)
+            throws IOException {
+        final DigestChallenge challenge = session.getChallenge();
+        if (challenge.getRealm() == null) {
             // missing realm, this would mean that the authenticator is not initialized for
             // this request. (e.g. if you configured the DispatchingAuthenticator).
             return null;
         }
-        final String nonce = parameters.get("nonce");
-        if (nonce == null) {
-            throw new IOException("missing nonce in challenge");
-        }
-        String stale = parameters.get("stale");
-        boolean isStale = "true".equalsIgnoreCase(stale);
 
-        if (havePreviousDigestAuthorizationAndShouldAbort(request, nonce, isStale)) {
+        if (havePreviousDigestAuthorizationAndShouldAbort(request, session.isProxy(), isStale)) {
             // prevent infinite loops when the password is wrong
             Platform.get().log("Previous digest authentication with same nonce failed, returning null", Platform.INFO,
                     null);
             return null;
         }
 
-        // Add method name and request-URI to the parameter map
-        if (parameters.get("proxy-authenticate") != null) {
-            final String method = "CONNECT";
-            final String uri = request.url().host() + ':' + request.url().port();
-            parameters.put("methodname", method);
-            parameters.put("uri", uri);
+        final String method;
+        final String uri;
+        if (challenge.isConnect()) {
+            method = "CONNECT";
+            uri = request.url().host() + ':' + request.url().port();
         } else {
-            final String method = request.method();
-            final String uri = this.requestPath(request.url());
-            parameters.put("methodname", method);
-            parameters.put("uri", uri);
+            method = request.method();
+            uri = this.requestPath(request.url());
         }
 
-        final String charset = parameters.get("charset");
+        String charset = challenge.getCharset();
         if (charset == null) {
-            String credentialsCharset = getCredentialsCharset(request);
-            parameters.put("charset", credentialsCharset);
+            charset = getCredentialsCharset(request);
         }
-        final NameValuePair digestHeader = createDigestHeader(credentials, request, parameters);
-        return request.newBuilder().header(digestHeader.getName(), digestHeader.getValue()).build();
+        final String digestHeader = createDigestHeader(credentials, request, session, method, uri, charset);
+        persistNonceCount(route, request, session);
+        final String headerKey;
+        if (session.isProxy()) {
+            headerKey = PROXY_AUTH_RESP;
+        } else {
+            headerKey = WWW_AUTH_RESP;
+        }
+        return request.newBuilder().header(headerKey, digestHeader).build();
     }
 
     /**
@@ -292,15 +670,15 @@ public class DigestAuthenticator implements CachingAuthenticator {
      * ...
      *
      * @param request the previous request
-     * @param nonce   the current server nonce.
+     * @param proxy   {@code true} if the challenge was sent by a proxy.
      * @param isStale when {@code true} then the server told us that the nonce was
      *                stale.
      * @return {@code true} in case the previous request already was authenticating
      * to the current server nonce.
      */
-    private boolean havePreviousDigestAuthorizationAndShouldAbort(Request request, String nonce, boolean isStale) {
+    private boolean havePreviousDigestAuthorizationAndShouldAbort(Request request, boolean proxy, boolean isStale) {
         final String headerKey;
-        if (isProxy()) {
+        if (proxy) {
             headerKey = PROXY_AUTH_RESP;
         } else {
             headerKey = WWW_AUTH_RESP;
@@ -314,41 +692,26 @@ public class DigestAuthenticator implements CachingAuthenticator {
         return false;
     }
 
-    private void copyHeaderMap(Headers headers, Map<String, String> dest) {
-        for (int i = 0; i < headers.size(); i++) {
-            dest.put(headers.name(i), headers.value(i));
-        }
-    }
-
     /**
      * Creates digest-response header as defined in RFC2617.
      *
      * @param credentials User credentials
+     * @param session     the nonce session holding the server challenge
+     * @param method      the request method
+     * @param uri         the digest-uri
+     * @param charset     the charset used to encode the credentials
      * @return The digest-response as String.
      */
     // @edu.umd.cs.findbugs.annotations.SuppressFBWarnings("LSC_LITERAL_STRING_COMPARISON")
-    private synchronized NameValuePair createDigestHeader(final Credentials credentials, final Request request,
-                                                          final Map<String, String> parameters) throws AuthenticationException {
-        final String uri = parameters.get("uri");
-        final String realm = parameters.get("realm");
-        final String nonce = parameters.get("nonce");
-        final String opaque = parameters.get("opaque");
-        final String method = parameters.get("methodname");
-        String algorithm = parameters.get("algorithm");
-        // If an algorithm is not specified, default to MD5.
-        if (algorithm == null) {
-            algorithm = "MD5";
-        }
-
-        final Set<String> qopset = new HashSet<>(8);
+    private String createDigestHeader(final Credentials credentials, final Request request,
+                                      final NonceSession session, final String method, final String uri,
+                                      final String charset) throws IOException {
+        final DigestChallenge challenge = session.getChallenge();
+
+        final Set<String> qopset = challenge.getQopOptions();
         int qop = QOP_UNKNOWN;
-        final String qoplist = parameters.get("qop");
+        final String qoplist = challenge.getQop();
         if (qoplist != null) {
-            final StringTokenizer tok = new StringTokenizer(qoplist, ",");
-            while (tok.hasMoreTokens()) {
-                final String variant = tok.nextToken().trim();
-                qopset.add(variant.toLowerCase(Locale.US));
-            }
             if (request.body() != null && qopset.contains("auth-int")) {
                 qop = QOP_AUTH_INT;
             } else if (qopset.contains("auth")) {
@@ -362,152 +725,366 @@ public class DigestAuthenticator implements CachingAuthenticator {
             throw new AuthenticationException("None of the qop methods is supported: " + qoplist);
         }
 
-        String charset = parameters.get("charset");
-        if (charset == null) {
-            charset = "ISO-8859-1";
-        }
-
-        String digAlg = algorithm;
-        if ("MD5-sess".equalsIgnoreCase(digAlg)) {
-            digAlg = "MD5";
+        final DigestAlgorithm algorithm = challenge.getDigestAlgorithm();
+        final MessageDigest digester = acquireDigester(algorithm);
+        try {
+            return createDigestHeader(credentials, request, session, method, uri, charset, digester, qop);
+        } finally {
+            digestPool.release(algorithm, digester);
         }
+    }
 
-        final MessageDigest digester;
+    /**
+     * Acquires a digest engine for the given challenge algorithm, which has to be released to the
+     * pool afterwards.
+     */
+    private MessageDigest acquireDigester(final DigestAlgorithm algorithm) throws AuthenticationException {
         try {
-            digester = createMessageDigest(digAlg);
+            return digestPool.acquire(algorithm);
         } catch (final UnsupportedDigestAlgorithmException ex) {
-            throw new AuthenticationException("Unsuppported digest algorithm: " + digAlg, ex);
+            throw new AuthenticationException("Unsuppported digest algorithm: " + algorithm, ex);
         }
+    }
 
-        final String uname = credentials.getUserName();
-        final String pwd = credentials.getPassword();
-
-        if (nonce.equals(this.lastNonce)) {
-            nounceCount++;
-        } else {
-            nounceCount = 1;
-            cnonce = null;
-            lastNonce = nonce;
-        }
-        final StringBuilder sb = new StringBuilder(256);
-        final Formatter formatter = new Formatter(sb, Locale.US);
-        formatter.format("%08x", nounceCount);
-        formatter.close();
-        final String nc = sb.toString();
+    private String createDigestHeader(final Credentials credentials, final Request request,
+                                      final NonceSession session, final String method, final String uri,
+                                      final String charset, final MessageDigest digester, int qop)
+            throws IOException {
+        final DigestChallenge challenge = session.getChallenge();
+        final String realm = challenge.getRealm();
+        final String nonce = challenge.getNonce();
 
-        if (cnonce == null) {
-            cnonce = createCnonce();
-        }
+        final String uname = credentials.getUserName();
 
-        a1 = null;
-        a2 = null;
-        // 3.2.2.2: Calculating digest
-        if ("MD5-sess".equalsIgnoreCase(algorithm)) {
-            // H( unq(username-value) ":" unq(realm-value) ":" passwd )
-            // ":" unq(nonce-value)
-            // ":" unq(cnonce-value)
+        final String cnonce = session.getCnonce();
+        final long nc = session.nextNonceCount();
 
-            // calculated one per session
-            sb.setLength(0);
-            sb.append(uname).append(':').append(realm).append(':').append(pwd);
-            final String checksum = encode(digester.digest(getBytes(sb.toString(), charset)));
-            sb.setLength(0);
-            sb.append(checksum).append(':').append(nonce).append(':').append(cnonce);
-            a1 = sb.toString();
-        } else {
-            // unq(username-value) ":" unq(realm-value) ":" passwd
-            sb.setLength(0);
-            sb.append(uname).append(':').append(realm).append(':').append(pwd);
-            a1 = sb.toString();
+        final String hasha1 = getHa1(digester, realm, challenge.getDigestAlgorithm(), nonce, cnonce, charset);
+        DigestHeaderTemplate template = session.getHeaderTemplate();
+        if (template == null || !template.isFor(uname)) {
+            // RFC 7616, 3.4.4: H( unq(username) ":" unq(realm) ) is sent instead of the username
+            final String username = challenge.isUserhash()
+                    ? getUserHash(digester, uname, realm, challenge.getDigestAlgorithm().getHashName(), charset)
+                    : uname;
+            template = DigestHeaderTemplate.create(uname, username, session);
+            session.setHeaderTemplate(template);
         }
 
-        final String hasha1 = encode(digester.digest(getBytes(a1, charset)));
-
-        if (qop == QOP_AUTH) {
-            // Method ":" digest-uri-value
-            a2 = method + ':' + uri;
-        } else if (qop == QOP_AUTH_INT) {
+        // method and request-uri are always US-ASCII so the writer can hash them without encoding
+        final DigestHeaderWriter writer = DigestHeaderWriter.get();
+        if (qop == QOP_AUTH_INT) {
             // Method ":" digest-uri-value ":" H(entity-body)
-            RequestBody entity = request.body();
-            if (entity != null) {
+            final RequestBody entity = request.body();
+            if (entity != null && (entity.isOneShot() || entity.isDuplex())) {
                 // If the entity is not repeatable, try falling back onto QOP_AUTH
-                if (qopset.contains("auth")) {
+                if (challenge.getQopOptions().contains("auth")) {
                     qop = QOP_AUTH;
-                    a2 = method + ':' + uri;
+                    writer.input(method).input(':').input(uri);
                 } else {
                     throw new AuthenticationException("Qop auth-int cannot be used with " + "a non-repeatable entity");
                 }
             } else {
-                // code straight from
-                // https://github.com/apache/httpclient/blob/4.3.x/httpclient/src/main/java/org/apache/http/impl/auth/DigestScheme.java#L363
-                // not sure if this will actually work with an empty body.
-                final HttpEntityDigester entityDigester = new HttpEntityDigester(digester);
-                try {
-                    entityDigester.close();
-                } catch (final IOException ex) {
-                    throw new AuthenticationException("I/O error reading entity content", ex);
-                }
-                a2 = method + ':' + uri + ':' + encode(entityDigester.getDigest());
+                final byte[] entityDigest = digestEntity(entity, challenge.getDigestAlgorithm(), digester);
+                writer.input(method).input(':').input(uri).input(':').inputHex(entityDigest);
             }
         } else {
-            a2 = method + ':' + uri;
+            // Method ":" digest-uri-value
+            writer.input(method).input(':').input(uri);
         }
 
-        final String hasha2 = encode(digester.digest(getBytes(a2, charset)));
+        final byte[] hasha2 = writer.digestInput(digester);
 
         // 3.2.2.1
-
-        final String digestValue;
         if (qop == QOP_MISSING) {
-            sb.setLength(0);
-            sb.append(hasha1).append(':').append(nonce).append(':').append(hasha2);
-            digestValue = sb.toString();
+            writer.input(hasha1).input(':').input(nonce).input(':').inputHex(hasha2);
         } else {
-            sb.setLength(0);
-            sb.append(hasha1).append(':').append(nonce).append(':').append(nc).append(':').append(cnonce).append(':')
-                    .append(qop == QOP_AUTH_INT ? "auth-int" : "auth").append(':').append(hasha2);
-            digestValue = sb.toString();
+            writer.input(hasha1).input(':').input(nonce).input(':').inputNonceCount(nc).input(':').input(cnonce)
+                    .input(':').input(qop == QOP_AUTH_INT ? "auth-int" : "auth").input(':').inputHex(hasha2);
         }
 
-        final String digest = encode(digester.digest(getAsciiBytes(digestValue)));
+        final byte[] digest = writer.digestInput(digester);
 
-        final StringBuilder buffer = new StringBuilder(128);
-        final String headerKey;
-        if (isProxy()) {
-            headerKey = PROXY_AUTH_RESP;
-        } else {
-            headerKey = WWW_AUTH_RESP;
+        // only the variable parts are rendered, everything else is copied from the session template
+        final String qopValue = qop == QOP_MISSING ? null : qop == QOP_AUTH_INT ? "auth-int" : "auth";
+        return template.render(writer, uri, digest, qopValue, nc);
+    }
+
+    /**
+     * Calculates H(entity-body) by streaming the body into the digester, an absent body is hashed
+     * as an empty one. File bodies are hashed via a memory mapping. The hashes of bodies are
+     * remembered for as long as the body is in use, those of file bodies which opted in are cached
+     * until the file changes. If the hash is already being calculated in the background (see
+     * {@link #prefetchEntityDigest}) it is awaited.
+     */
+    private byte[] digestEntity(final RequestBody entity, final DigestAlgorithm digestAlgorithm,
+                                final MessageDigest digester) throws IOException {
+        if (isFileDigestCached(entity)) {
+            try {
+                return fileDigestCache.digest(((FileRequestBody) entity).getFile(), digester);
+            } catch (final InterruptedIOException ex) {
+                throw ex;
+            } catch (final IOException ex) {
+                throw new AuthenticationException("I/O error reading entity content", ex);
+            }
+        }
+        if (entity == null) {
+            return hashEntity(null, digester);
+        }
+        final String algorithm = entityDigestKey(digestAlgorithm);
+        while (true) {
+            final CompletableFuture<byte[]> created = new CompletableFuture<>();
+            final CompletableFuture<byte[]> existing = entityDigestCache.putIfAbsent(entity, algorithm, created);
+            if (existing != null) {
+                final byte[] hash = EntityDigestCache.await(existing);
+                if (hash != null) {
+                    return hash;
+                }
+                // the calculation failed in the background, calculate it here
+                entityDigestCache.remove(entity, algorithm, existing);
+                continue;
+            }
+            try {
+                final byte[] hash = hashEntity(entity, digester);
+                created.complete(hash);
+                return hash;
+            } catch (final IOException | RuntimeException ex) {
+                entityDigestCache.remove(entity, algorithm, created);
+                created.completeExceptionally(ex);
+                throw ex;
+            }
         }
-        buffer.append("Digest ");
+    }
 
-        final List<NameValuePair> params = new ArrayList<>(20);
-        params.add(new BasicNameValuePair("username", uname));
-        params.add(new BasicNameValuePair("realm", realm));
-        params.add(new BasicNameValuePair("nonce", nonce));
-        params.add(new BasicNameValuePair("uri", uri));
-        params.add(new BasicNameValuePair("response", digest));
+    private byte[] hashEntity(final RequestBody entity, final MessageDigest digester)
+            throws AuthenticationException {
+        if (entity instanceof FileRequestBody) {
+            try {
+                return FileDigestCache.digestMapped(((FileRequestBody) entity).getFile(), digester);
+            } catch (final IOException ex) {
+                throw new AuthenticationException("I/O error reading entity content", ex);
+            }
+        }
+        final HttpEntityDigester entityDigester = new HttpEntityDigester(digester);
+        try {
+            if (entity != null) {
+                entity.writeTo(entityDigester);
+            }
+            entityDigester.close();
+        } catch (final IOException ex) {
+            throw new AuthenticationException("I/O error reading entity content", ex);
+        }
+        return entityDigester.getDigest();
+    }
 
-        if (qop != QOP_MISSING) {
-            params.add(new BasicNameValuePair("qop", qop == QOP_AUTH_INT ? "auth-int" : "auth"));
-            params.add(new BasicNameValuePair("nc", nc));
-            params.add(new BasicNameValuePair("cnonce", cnonce));
+    /**
+     * Starts calculating H(entity-body) of the given request on the given executor, so that the hash
+     * is ready (or at least in progress) when the server or proxy challenges the request with
+     * {@code qop=auth-int}. The algorithm of the current challenge of the protection space is used.
+     * Nothing is done if the body cannot be sent repeatedly, if the protection space was not
+     * challenged yet (the algorithm the server will ask for is unknown) or if its challenge does not
+     * offer {@code auth-int}.
+     *
+     * @param route    the route to use, without it only proxy sessions which were established
+     *                 without a route are found.
+     * @param request  the request which is about to be sent.
+     * @param executor the executor to calculate the hash on.
+     * @see EntityDigestPrefetchInterceptor
+     */
+    public void prefetchEntityDigest(Route route, Request request, Executor executor) {
+        final RequestBody entity = request.body();
+        if (entity == null || entity.isOneShot() || entity.isDuplex()) {
+            return;
         }
-        // algorithm cannot be null here
-        params.add(new BasicNameValuePair("algorithm", algorithm));
-        if (opaque != null) {
-            params.add(new BasicNameValuePair("opaque", opaque));
+        prefetchEntityDigest(sessions.get(getSessionKey(route, request, false)), entity, executor);
+        prefetchEntityDigest(sessions.get(getSessionKey(route, request, true)), entity, executor);
+    }
+
+    private void prefetchEntityDigest(NonceSession session, RequestBody entity, Executor executor) {
+        if (session == null || !session.getChallenge().getQopOptions().contains("auth-int")) {
+            return;
         }
+        final DigestAlgorithm algorithm = session.getChallenge().getDigestAlgorithm();
+        final String digestAlgorithm = entityDigestKey(algorithm);
 
-        for (int i = 0; i < params.size(); i++) {
-            final NameValuePair param = params.get(i);
-            if (i > 0) {
-                buffer.append(", ");
+        final CompletableFuture<byte[]> created;
+        if (isFileDigestCached(entity)) {
+            created = null;
+        } else {
+            created = new CompletableFuture<>();
+            if (entityDigestCache.putIfAbsent(entity, digestAlgorithm, created) != null) {
+                return;
             }
-            final String name = param.getName();
-            final boolean noQuotes = ("nc".equals(name) || "qop".equals(name) || "algorithm".equals(name));
-            BasicHeaderValueFormatter.DEFAULT.formatNameValuePair(buffer, param, !noQuotes);
         }
-        return new BasicNameValuePair(headerKey, buffer.toString());
+        try {
+            executor.execute(() -> {
+                try {
+                    final MessageDigest digester = acquireDigester(algorithm);
+                    try {
+                        if (created == null) {
+                            fileDigestCache.digest(((FileRequestBody) entity).getFile(), digester);
+                        } else {
+                            created.complete(hashEntity(entity, digester));
+                        }
+                    } finally {
+                        digestPool.release(algorithm, digester);
+                    }
+                } catch (final IOException | RuntimeException ex) {
+                    Platform.get().log("Failed to calculate the entity digest in the background", Platform.INFO, ex);
+                    if (created != null) {
+                        entityDigestCache.remove(entity, digestAlgorithm, created);
+                        created.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            if (created != null) {
+                entityDigestCache.remove(entity, digestAlgorithm, created);
+                created.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private static boolean isFileDigestCached(final RequestBody entity) {
+        return entity instanceof FileRequestBody && ((FileRequestBody) entity).isDigestCached();
+    }
+
+    /**
+     * The key of a hash in the {@link EntityDigestCache}, it has to be the same whether the hash is
+     * calculated in the background or while answering the challenge.
+     */
+    private static String entityDigestKey(DigestAlgorithm algorithm) {
+        return algorithm.getHashName();
+    }
+
+    /**
+     * Calculates H(A1) as defined in RFC 2617, section 3.2.2.2.
+     */
+    private String getHa1(final MessageDigest digester, final String realm, final DigestAlgorithm algorithm,
+                          final String nonce, final String cnonce, final String charset) {
+        // H( unq(username-value) ":" unq(realm-value) ":" passwd ) does not change for the same
+        // credentials and realm, therefore it is only calculated once
+        final String checksum = getCredentialsDigest(digester, credentials, realm, algorithm.getHashName(),
+                charset);
+        if (algorithm.isSession()) {
+            // H( unq(username-value) ":" unq(realm-value) ":" passwd )
+            // ":" unq(nonce-value)
+            // ":" unq(cnonce-value)
+            final String a1 = checksum + ':' + nonce + ':' + cnonce;
+            return encode(digester.digest(getBytes(a1, charset)));
+        }
+        return checksum;
+    }
+
+    /**
+     * Returns {@code H(unq(username) ":" unq(realm))}, either from the cache or freshly calculated.
+     */
+    private String getUserHash(final MessageDigest digester, final String uname, final String realm,
+                               final String algorithm, final String charset) {
+        final int generation = credentials.getGeneration();
+        final String cached = userHashCache.get(uname, realm, algorithm, charset);
+        if (cached != null) {
+            return cached;
+        }
+        final String userHash = encode(digester.digest(getBytes(uname + ':' + realm, charset)));
+        userHashCache.put(generation, uname, realm, algorithm, charset, userHash);
+        return userHash;
+    }
+
+    /**
+     * Returns {@code H(unq(username-value) ":" unq(realm-value) ":" passwd)}, either from the cache
+     * or freshly calculated.
+     */
+    private String getCredentialsDigest(final MessageDigest digester, final Credentials credentials,
+                                        final String realm, final String algorithm, final String charset) {
+        final int generation = credentials.getGeneration();
+        final String uname = credentials.getUserName();
+        final String cached = credentialDigestCache.get(uname, realm, algorithm, charset);
+        if (cached != null) {
+            return cached;
+        }
+        final String a1 = uname + ':' + realm + ':' + credentials.getPassword();
+        final String checksum = encode(digester.digest(getBytes(a1, charset)));
+        credentialDigestCache.put(generation, uname, realm, algorithm, charset, checksum);
+        return checksum;
+    }
+
+    /**
+     * Sets how to choose between several {@code Digest} challenges with different algorithms,
+     * {@link DigestAlgorithmPreference#SERVER_ORDER} by default.
+     *
+     * @param preference the preference to use.
+     */
+    public void setAlgorithmPreference(DigestAlgorithmPreference preference) {
+        challengeSelector.setPreference(preference);
+    }
+
+    public DigestAlgorithmPreference getAlgorithmPreference() {
+        return challengeSelector.getPreference();
+    }
+
+    /**
+     * Enables or disables single flight handling of concurrent challenges. When enabled (the
+     * default) concurrent challenges for the same protection space result in a single session
+     * update which all callers share, rather than each of them resetting the nonce.
+     *
+     * @param singleFlightChallenges {@code true} to coalesce concurrent challenges.
+     */
+    public void setSingleFlightChallenges(boolean singleFlightChallenges) {
+        this.singleFlightChallenges = singleFlightChallenges;
+    }
+
+    public boolean isSingleFlightChallenges() {
+        return singleFlightChallenges;
+    }
+
+    /**
+     * @return the number of challenges which did not replace the session of their protection space
+     * because a concurrent challenge already did.
+     */
+    public long getCoalescedChallengeCount() {
+        return coalescedChallengeCount.get();
+    }
+
+    /**
+     * Enables or disables the verification of the {@code rspauth} sent by the server in the
+     * {@code Authentication-Info} header. Verification is disabled by default since many servers do
+     * not send an {@code rspauth}.
+     *
+     * @param verifyResponseAuth {@code true} to fail responses whose {@code rspauth} is missing or wrong.
+     */
+    public void setVerifyResponseAuth(boolean verifyResponseAuth) {
+        this.verifyResponseAuth = verifyResponseAuth;
+    }
+
+    public boolean isVerifyResponseAuth() {
+        return verifyResponseAuth;
+    }
+
+    /**
+     * @return the number of times a session was switched to the {@code nextnonce} announced by the server.
+     */
+    public long getNonceRotationCount() {
+        return nonceRotationCount.get();
+    }
+
+    /**
+     * Returns the cache of parsed challenges used by this authenticator, e.g. in order to monitor
+     * its hit rate.
+     *
+     * @return the challenge cache.
+     */
+    public DigestChallengeCache getChallengeCache() {
+        return challengeCache;
+    }
+
+    /**
+     * Returns the pool from which this authenticator obtains its digest engines, e.g. in order to
+     * monitor its size and hit rate.
+     *
+     * @return the digest engine pool.
+     */
+    public MessageDigestPool getDigestPool() {
+        return digestPool;
     }
 
     /**
@@ -0,0 +1,154 @@
+package com.burgstaller.okhttp.digest;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * An immutable, parsed {@code Digest} challenge as sent by a server via {@code WWW-Authenticate}
+ * or by a proxy via {@code Proxy-Authenticate}.
+ */
+public final class DigestChallenge {
+    private final String realm;
+    private final String nonce;
+    private final String opaque;
+    private final String algorithm;
+    private final DigestAlgorithm digestAlgorithm;
+    private final String qop;
+    private final Set<String> qopOptions;
+    private final String charset;
+    private final boolean stale;
+    private final boolean userhash;
+    private final boolean connect;
+
+    DigestChallenge(String realm, String nonce, String opaque, String algorithm, String qop, String charset,
+                    boolean stale, boolean userhash, boolean connect) {
+        this.realm = realm;
+        this.nonce = nonce;
+        this.opaque = opaque;
+        // If an algorithm is not specified, default to MD5.
+        this.algorithm = algorithm != null ? algorithm : "MD5";
+        this.digestAlgorithm = DigestAlgorithm.forToken(this.algorithm);
+        this.qop = qop;
+        this.qopOptions = parseQop(qop);
+        this.charset = charset;
+        this.stale = stale;
+        this.userhash = userhash;
+        this.connect = connect;
+    }
+
+    /**
+     * Creates a challenge from the auth-params of a parsed challenge header.
+     *
+     * @param parameters the auth-params, keyed by their name.
+     * @param connect    {@code true} if the challenge applies to a {@code CONNECT} request.
+     * @return the challenge.
+     */
+    static DigestChallenge fromParameters(Map<String, String> parameters, boolean connect) {
+        return new DigestChallenge(
+                parameters.get("realm"),
+                parameters.get("nonce"),
+                parameters.get("opaque"),
+                parameters.get("algorithm"),
+                parameters.get("qop"),
+                parameters.get("charset"),
+                "true".equalsIgnoreCase(parameters.get("stale")),
+                "true".equalsIgnoreCase(parameters.get("userhash")),
+                connect);
+    }
+
+    /**
+     * @return a copy of this challenge for the given nonce, e.g. the {@code nextnonce} announced by
+     * the server.
+     */
+    DigestChallenge withNonce(String nonce) {
+        return new DigestChallenge(realm, nonce, opaque, algorithm, qop, charset, false, userhash, connect);
+    }
+
+    private static Set<String> parseQop(String qop) {
+        if (qop == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> qopset = new LinkedHashSet<>(4);
+        final StringTokenizer tok = new StringTokenizer(qop, ",");
+        while (tok.hasMoreTokens()) {
+            final String variant = tok.nextToken().trim();
+            qopset.add(variant.toLowerCase(Locale.US));
+        }
+        return Collections.unmodifiableSet(qopset);
+    }
+
+    /**
+     * @return the realm or {@code null} if the server did not send one.
+     */
+    public String getRealm() {
+        return realm;
+    }
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    /**
+     * @return the opaque value or {@code null} if the server did not send one.
+     */
+    public String getOpaque() {
+        return opaque;
+    }
+
+    /**
+     * @return the algorithm token as sent by the server, {@code MD5} if none was sent.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the resolved {@link #getAlgorithm() algorithm}.
+     */
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * @return the raw qop value as sent by the server or {@code null} if none was sent.
+     */
+    public String getQop() {
+        return qop;
+    }
+
+    /**
+     * @return the lower case qop options offered by the server, empty if the server did not send a qop.
+     */
+    public Set<String> getQopOptions() {
+        return qopOptions;
+    }
+
+    /**
+     * @return the charset requested by the server or {@code null} if none was requested.
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return {@code true} if the server supports hashed usernames (RFC 7616, section 3.4.4).
+     */
+    public boolean isUserhash() {
+        return userhash;
+    }
+
+    /**
+     * @return {@code true} if the digest-uri should be the authority of a {@code CONNECT} request.
+     */
+    boolean isConnect() {
+        return connect;
+    }
+}
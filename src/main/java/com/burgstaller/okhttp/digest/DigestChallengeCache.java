@@ -0,0 +1,99 @@
+package com.burgstaller.okhttp.digest;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache from raw {@code Digest} challenge header values to parsed challenges. Servers
+ * usually send the very same challenge until their nonce rotates, repeated challenges are then
+ * not parsed again. The default instance is shared by all {@link DigestAuthenticator}s.
+ */
+public final class DigestChallengeCache {
+    /**
+     * The default number of challenges kept.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final DigestChallengeCache DEFAULT = new DigestChallengeCache(DEFAULT_MAX_SIZE);
+
+    private final ConcurrentMap<String, DigestChallenge> challenges = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public DigestChallengeCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cache shared by all {@link DigestAuthenticator}s.
+     */
+    public static DigestChallengeCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the parsed challenge for the given header value, parsing it only if it is not cached.
+     *
+     * @param header  the header value, starting with the {@code Digest} auth-scheme.
+     * @param connect {@code true} if the challenge applies to a {@code CONNECT} request.
+     * @return the challenge.
+     */
+    DigestChallenge get(String header, boolean connect) {
+        final DigestChallenge cached = challenges.get(header);
+        if (cached != null && cached.isConnect() == connect) {
+            hitCount.incrementAndGet();
+            return cached;
+        }
+        missCount.incrementAndGet();
+        // skip the "Digest" auth-scheme
+        final DigestChallenge challenge = DigestChallengeParser.parse(header, 6, connect);
+        if (maxSize == 0) {
+            return challenge;
+        }
+        if (challenges.size() >= maxSize && !challenges.containsKey(header)) {
+            final Iterator<String> iterator = challenges.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        challenges.put(header, challenge);
+        return challenge;
+    }
+
+    /**
+     * @return the number of cached challenges.
+     */
+    public int size() {
+        return challenges.size();
+    }
+
+    /**
+     * @return the number of challenges which were served from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of challenges which had to be parsed.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of challenges served from the cache, {@code 0} if nothing was requested yet.
+     */
+    public double getHitRate() {
+        final long hits = hitCount.get();
+        final long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
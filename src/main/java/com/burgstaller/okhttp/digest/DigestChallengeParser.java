@@ -0,0 +1,189 @@
+package com.burgstaller.okhttp.digest;
+
+/**
+ * A single pass tokenizer for the auth-params of a {@code Digest} challenge, working directly on
+ * the header value. Only the values of known parameters are extracted, quoted-string escapes are
+ * resolved and unknown parameters are skipped without creating any objects. Parameter names are
+ * case insensitive (RFC 7235, section 2.1).
+ */
+final class DigestChallengeParser {
+    private static final int REALM = 0;
+    private static final int NONCE = 1;
+    private static final int OPAQUE = 2;
+    private static final int ALGORITHM = 3;
+    private static final int QOP = 4;
+    private static final int CHARSET = 5;
+    private static final int STALE = 6;
+    private static final int USERHASH = 7;
+    private static final String[] NAMES = {"realm", "nonce", "opaque", "algorithm", "qop", "charset", "stale",
+            "userhash"};
+    private static final int UNKNOWN = -1;
+    private static final int END = -2;
+
+    private final String header;
+    private final int length;
+    private int pos;
+
+    private DigestChallengeParser(String header, int offset) {
+        this.header = header;
+        this.length = header.length();
+        this.pos = offset;
+    }
+
+    /**
+     * Parses the auth-params of a challenge.
+     *
+     * @param header  the header value.
+     * @param offset  the index at which the auth-params start, i.e. after the {@code Digest} scheme.
+     * @param connect {@code true} if the challenge applies to a {@code CONNECT} request.
+     * @return the challenge, its nonce is {@code null} if the server did not send one.
+     */
+    static DigestChallenge parse(String header, int offset, boolean connect) {
+        return new DigestChallengeParser(header, offset).parse(connect);
+    }
+
+    /**
+     * Extracts only the {@code algorithm} parameter of a challenge, skipping all other values.
+     *
+     * @param header the header value.
+     * @param offset the index at which the auth-params start, i.e. after the {@code Digest} scheme.
+     * @return the algorithm token, {@code null} if the server did not send one.
+     */
+    static String parseAlgorithm(String header, int offset) {
+        final DigestChallengeParser parser = new DigestChallengeParser(header, offset);
+        int parameter;
+        while ((parameter = parser.nextParameter()) != END) {
+            final String value = parser.readValue(parameter == ALGORITHM);
+            if (parameter == ALGORITHM) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private DigestChallenge parse(boolean connect) {
+        final String[] values = new String[NAMES.length];
+        int parameter;
+        while ((parameter = nextParameter()) != END) {
+            final String value = readValue(parameter != UNKNOWN);
+            if (parameter != UNKNOWN && values[parameter] == null) {
+                values[parameter] = value;
+            }
+        }
+        return new DigestChallenge(values[REALM], values[NONCE], values[OPAQUE], values[ALGORITHM], values[QOP],
+                values[CHARSET], "true".equalsIgnoreCase(values[STALE]), "true".equalsIgnoreCase(values[USERHASH]),
+                connect);
+    }
+
+    /**
+     * Advances to the value of the next parameter, parameters without a value are skipped.
+     *
+     * @return the parameter, {@link #UNKNOWN} for one which is not extracted or {@link #END} if
+     * there are no more parameters.
+     */
+    private int nextParameter() {
+        while (true) {
+            skipSeparators();
+            if (pos >= length) {
+                return END;
+            }
+            final int nameStart = pos;
+            while (pos < length && !isDelimiter(header.charAt(pos)) && header.charAt(pos) != '=') {
+                pos++;
+            }
+            final int parameter = lookup(nameStart, pos);
+            skipWhitespace();
+            if (pos < length && header.charAt(pos) == '=') {
+                pos++;
+                skipWhitespace();
+                return parameter;
+            }
+        }
+    }
+
+    /**
+     * Reads a token or quoted-string value.
+     *
+     * @param keep {@code false} if the value is not needed, in that case it is only skipped.
+     */
+    private String readValue(boolean keep) {
+        if (pos < length && header.charAt(pos) == '"') {
+            return readQuotedString(keep);
+        }
+        final int start = pos;
+        while (pos < length && !isDelimiter(header.charAt(pos))) {
+            pos++;
+        }
+        return keep ? header.substring(start, pos) : null;
+    }
+
+    private String readQuotedString(boolean keep) {
+        // skip the opening quote
+        final int start = ++pos;
+        StringBuilder unescaped = null;
+        int chunkStart = start;
+        while (pos < length) {
+            final char ch = header.charAt(pos);
+            if (ch == '"') {
+                final String value;
+                if (!keep) {
+                    value = null;
+                } else if (unescaped == null) {
+                    value = header.substring(start, pos);
+                } else {
+                    value = unescaped.append(header, chunkStart, pos).toString();
+                }
+                pos++;
+                return value;
+            }
+            if (ch == '\\' && pos + 1 < length) {
+                if (keep) {
+                    if (unescaped == null) {
+                        unescaped = new StringBuilder(pos - start + 16);
+                    }
+                    unescaped.append(header, chunkStart, pos);
+                    chunkStart = pos + 1;
+                }
+                // skip the escaped character
+                pos++;
+            }
+            pos++;
+        }
+        // unterminated quoted-string, keep what there is
+        if (!keep) {
+            return null;
+        }
+        return unescaped == null ? header.substring(start) : unescaped.append(header, chunkStart, length).toString();
+    }
+
+    private int lookup(int start, int end) {
+        final int nameLength = end - start;
+        for (int i = 0; i < NAMES.length; i++) {
+            final String name = NAMES[i];
+            if (name.length() == nameLength && header.regionMatches(true, start, name, 0, nameLength)) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private void skipSeparators() {
+        while (pos < length && isDelimiter(header.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < length) {
+            final char ch = header.charAt(pos);
+            if (ch != ' ' && ch != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isDelimiter(char ch) {
+        return ch == ',' || ch == ' ' || ch == '\t';
+    }
+}
@@ -0,0 +1,132 @@
+package com.burgstaller.okhttp.digest;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses one of several {@code Digest} challenges according to a {@link DigestAlgorithmPreference}.
+ * Only the algorithm tokens of the challenges are extracted, the chosen challenge is parsed by the
+ * caller. The choice is remembered per protection space: while a server repeats the same challenges,
+ * for example to concurrent requests, the previous choice is returned without looking at them again.
+ * When only the nonces changed and the same algorithms are offered, the previously chosen algorithm
+ * is picked without ranking again.
+ */
+final class DigestChallengeSelector {
+    private static final String DEFAULT_ALGORITHM = "MD5";
+    private static final int PARAMS_OFFSET = "Digest".length();
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Choice> choices = new ConcurrentHashMap<>();
+    private volatile DigestAlgorithmPreference preference = DigestAlgorithmPreference.SERVER_ORDER;
+
+    DigestChallengeSelector(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    DigestAlgorithmPreference getPreference() {
+        return preference;
+    }
+
+    void setPreference(DigestAlgorithmPreference preference) {
+        if (preference == null) {
+            throw new IllegalArgumentException("preference may not be null");
+        }
+        this.preference = preference;
+        choices.clear();
+    }
+
+    /**
+     * @param key        the protection space.
+     * @param challenges the {@code Digest} challenges in the order sent by the server.
+     * @return the challenge to answer.
+     */
+    String select(String key, List<String> challenges) {
+        if (challenges.size() == 1) {
+            return challenges.get(0);
+        }
+        final DigestAlgorithmPreference currentPreference = preference;
+        Choice choice = choices.get(key);
+        if (choice != null && choice.preference == currentPreference && sameElements(choice.challenges, challenges)) {
+            return challenges.get(choice.index);
+        }
+        final String[] algorithms = new String[challenges.size()];
+        for (int i = 0; i < algorithms.length; i++) {
+            algorithms[i] = algorithmOf(challenges.get(i));
+        }
+        final int index;
+        if (choice != null && choice.preference == currentPreference && Arrays.equals(choice.algorithms, algorithms)) {
+            index = choice.index;
+        } else {
+            index = choose(currentPreference, algorithms);
+        }
+        choice = new Choice(currentPreference, challenges.toArray(new String[0]), algorithms, index);
+        if (choices.size() >= maxSize && !choices.containsKey(key)) {
+            final Iterator<String> iterator = choices.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        choices.put(key, choice);
+        return challenges.get(index);
+    }
+
+    int size() {
+        return choices.size();
+    }
+
+    private static int choose(DigestAlgorithmPreference preference, String[] algorithms) {
+        int best = -1;
+        int bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < algorithms.length; i++) {
+            final DigestAlgorithm algorithm = DigestAlgorithm.forToken(algorithms[i]);
+            if (!algorithm.isAvailable()) {
+                continue;
+            }
+            final int rank = preference.rank(algorithm);
+            if (rank > bestRank) {
+                best = i;
+                bestRank = rank;
+            }
+        }
+        // none is available, answer the first one which will report the unsupported algorithm
+        return best >= 0 ? best : 0;
+    }
+
+    /**
+     * Extracts the value of the {@code algorithm} parameter without parsing the whole challenge.
+     */
+    static String algorithmOf(String challenge) {
+        final String algorithm = DigestChallengeParser.parseAlgorithm(challenge, PARAMS_OFFSET);
+        return algorithm != null && !algorithm.isEmpty() ? algorithm : DEFAULT_ALGORITHM;
+    }
+
+    private static boolean sameElements(String[] previous, List<String> challenges) {
+        if (previous.length != challenges.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.length; i++) {
+            if (!previous[i].equals(challenges.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Choice {
+        private final DigestAlgorithmPreference preference;
+        private final String[] challenges;
+        private final String[] algorithms;
+        private final int index;
+
+        Choice(DigestAlgorithmPreference preference, String[] challenges, String[] algorithms, int index) {
+            this.preference = preference;
+            this.challenges = challenges;
+            this.algorithms = algorithms;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.burgstaller.okhttp.digest;
+
+/**
+ * The pre-rendered invariant parts of the digest-response header of one nonce session. Within a
+ * session only {@code uri}, {@code response}, {@code qop} and {@code nc} change between requests,
+ * everything else is rendered once and spliced in verbatim, keeping the parameter order
+ * {@code username, realm, nonce, uri, response, qop, nc, cnonce, algorithm, opaque, userhash}.
+ */
+final class DigestHeaderTemplate {
+    private final String userName;
+    private final String prefix;
+    private final String qopAuth;
+    private final String qopAuthInt;
+    private final String suffix;
+    private final String suffixWithCnonce;
+
+    private DigestHeaderTemplate(String userName, String prefix, String qopAuth, String qopAuthInt, String suffix,
+                                 String suffixWithCnonce) {
+        this.userName = userName;
+        this.prefix = prefix;
+        this.qopAuth = qopAuth;
+        this.qopAuthInt = qopAuthInt;
+        this.suffix = suffix;
+        this.suffixWithCnonce = suffixWithCnonce;
+    }
+
+    /**
+     * Renders the template for the given session.
+     *
+     * @param userName the user name of the credentials.
+     * @param username the value of the username parameter, i.e. the user hash if requested.
+     * @param session  the nonce session.
+     * @return the template.
+     */
+    static DigestHeaderTemplate create(String userName, String username, NonceSession session) {
+        final DigestChallenge challenge = session.getChallenge();
+        final DigestHeaderWriter writer = new DigestHeaderWriter();
+        final String prefix = writer.append("Digest ")
+                .quoted("username", username)
+                .quoted("realm", challenge.getRealm())
+                .quoted("nonce", challenge.getNonce())
+                .parameterName("uri")
+                .takeHeaderValue();
+        final String qopAuth = writer.token("qop", "auth").parameterName("nc").takeHeaderValue();
+        final String qopAuthInt = writer.token("qop", "auth-int").parameterName("nc").takeHeaderValue();
+        final String cnonce = writer.quoted("cnonce", session.getCnonce()).takeHeaderValue();
+        // algorithm cannot be null here
+        writer.token("algorithm", challenge.getAlgorithm());
+        if (challenge.getOpaque() != null) {
+            writer.quoted("opaque", challenge.getOpaque());
+        }
+        if (challenge.isUserhash()) {
+            writer.token("userhash", "true");
+        }
+        final String suffix = writer.takeHeaderValue();
+        return new DigestHeaderTemplate(userName, prefix, qopAuth, qopAuthInt, suffix, cnonce + suffix);
+    }
+
+    /**
+     * @return {@code true} if this template was rendered for the given user name.
+     */
+    boolean isFor(String userName) {
+        return this.userName.equals(userName);
+    }
+
+    /**
+     * Renders the header into the given writer.
+     *
+     * @param writer the writer, its header buffer must be empty.
+     * @param uri    the digest-uri.
+     * @param digest the request-digest.
+     * @param qop    the qop value, {@code null} if the server did not offer any.
+     * @param nc     the nonce count, ignored if there is no qop.
+     * @return the header value.
+     */
+    String render(DigestHeaderWriter writer, String uri, byte[] digest, String qop, long nc) {
+        writer.append(prefix).quotedValue(uri).append(", response=").quotedHexValue(digest);
+        if (qop == null) {
+            return writer.append(suffix).takeHeaderValue();
+        }
+        return writer.append("auth-int".equals(qop) ? qopAuthInt : qopAuth)
+                .nonceCountValue(nc)
+                .append(suffixWithCnonce)
+                .takeHeaderValue();
+    }
+}
@@ -0,0 +1,213 @@
+package com.burgstaller.okhttp.digest;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Renders digest computations and the digest-response header into reusable per thread buffers.
+ * <p>
+ * The writer has two independent buffers: the digest input which is fed into a
+ * {@link MessageDigest} as US-ASCII bytes and the header value itself. Hex digits for hashes and
+ * the nonce count are written in place, so that apart from the final header {@link String} no
+ * intermediate objects are created.
+ * <p>
+ * Instances are not thread safe, use {@link #get()} to obtain the writer of the current thread.
+ */
+final class DigestHeaderWriter {
+    private static final char[] HEXADECIMAL = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
+            'e', 'f'};
+    private static final ThreadLocal<DigestHeaderWriter> WRITERS = new ThreadLocal<DigestHeaderWriter>() {
+        @Override
+        protected DigestHeaderWriter initialValue() {
+            return new DigestHeaderWriter();
+        }
+    };
+
+    private byte[] input = new byte[256];
+    private int inputLength;
+    private char[] header = new char[256];
+    private int headerLength;
+    private boolean firstParameter = true;
+
+    /**
+     * @return the writer of the current thread with both buffers cleared.
+     */
+    static DigestHeaderWriter get() {
+        final DigestHeaderWriter writer = WRITERS.get();
+        writer.inputLength = 0;
+        writer.headerLength = 0;
+        writer.firstParameter = true;
+        return writer;
+    }
+
+    /**
+     * Appends the given value to the digest input. Characters outside of US-ASCII are replaced by
+     * {@code '?'}.
+     */
+    DigestHeaderWriter input(String value) {
+        final int length = value.length();
+        ensureInputCapacity(length);
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            input[inputLength++] = ch < 0x80 ? (byte) ch : (byte) '?';
+        }
+        return this;
+    }
+
+    DigestHeaderWriter input(char ch) {
+        ensureInputCapacity(1);
+        input[inputLength++] = ch < 0x80 ? (byte) ch : (byte) '?';
+        return this;
+    }
+
+    /**
+     * Appends the lower case hex representation of the given hash to the digest input.
+     */
+    DigestHeaderWriter inputHex(byte[] hash) {
+        ensureInputCapacity(hash.length * 2);
+        for (byte b : hash) {
+            input[inputLength++] = (byte) HEXADECIMAL[(b & 0xf0) >> 4];
+            input[inputLength++] = (byte) HEXADECIMAL[b & 0x0f];
+        }
+        return this;
+    }
+
+    /**
+     * Appends the nonce count as 8 hex digits to the digest input.
+     */
+    DigestHeaderWriter inputNonceCount(long nonceCount) {
+        ensureInputCapacity(8);
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            input[inputLength++] = (byte) HEXADECIMAL[(int) (nonceCount >>> shift) & 0x0f];
+        }
+        return this;
+    }
+
+    /**
+     * Hashes the digest input collected so far and clears it.
+     *
+     * @param digester the engine to use, it will be reset afterwards.
+     * @return the hash of the digest input.
+     */
+    byte[] digestInput(MessageDigest digester) {
+        digester.update(input, 0, inputLength);
+        inputLength = 0;
+        return digester.digest();
+    }
+
+    /**
+     * Appends the given text verbatim to the header.
+     */
+    DigestHeaderWriter append(String value) {
+        final int length = value.length();
+        ensureHeaderCapacity(length);
+        value.getChars(0, length, header, headerLength);
+        headerLength += length;
+        return this;
+    }
+
+    /**
+     * Appends a parameter whose value is always quoted, escaping quotes and backslashes.
+     */
+    DigestHeaderWriter quoted(String name, String value) {
+        parameterName(name);
+        return quotedValue(value);
+    }
+
+    /**
+     * Appends a quoted value, escaping quotes and backslashes.
+     */
+    DigestHeaderWriter quotedValue(String value) {
+        final int length = value.length();
+        ensureHeaderCapacity(length * 2 + 2);
+        header[headerLength++] = '"';
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                header[headerLength++] = '\\';
+            }
+            header[headerLength++] = ch;
+        }
+        header[headerLength++] = '"';
+        return this;
+    }
+
+    /**
+     * Appends a parameter whose value is a token, it is only quoted if it contains separators.
+     */
+    DigestHeaderWriter token(String name, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (isSeparator(value.charAt(i))) {
+                return quoted(name, value);
+            }
+        }
+        parameterName(name);
+        return append(value);
+    }
+
+    /**
+     * Appends the quoted lower case hex representation of the given hash.
+     */
+    DigestHeaderWriter quotedHexValue(byte[] hash) {
+        ensureHeaderCapacity(hash.length * 2 + 2);
+        header[headerLength++] = '"';
+        for (byte b : hash) {
+            header[headerLength++] = HEXADECIMAL[(b & 0xf0) >> 4];
+            header[headerLength++] = HEXADECIMAL[b & 0x0f];
+        }
+        header[headerLength++] = '"';
+        return this;
+    }
+
+    /**
+     * Appends the nonce count as 8 hex digits.
+     */
+    DigestHeaderWriter nonceCountValue(long nonceCount) {
+        ensureHeaderCapacity(8);
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            header[headerLength++] = HEXADECIMAL[(int) (nonceCount >>> shift) & 0x0f];
+        }
+        return this;
+    }
+
+    /**
+     * Returns the header value rendered so far and clears the header buffer, the separator state is
+     * kept so that the next parameter continues the list, e.g. when rendering header fragments.
+     */
+    String takeHeaderValue() {
+        final String value = new String(header, 0, headerLength);
+        headerLength = 0;
+        return value;
+    }
+
+    /**
+     * Appends the name of a parameter followed by {@code '='}, preceded by a separator unless it is
+     * the first parameter.
+     */
+    DigestHeaderWriter parameterName(String name) {
+        if (!firstParameter) {
+            append(", ");
+        }
+        firstParameter = false;
+        append(name);
+        ensureHeaderCapacity(1);
+        header[headerLength++] = '=';
+        return this;
+    }
+
+    private void ensureInputCapacity(int additional) {
+        if (inputLength + additional > input.length) {
+            input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + additional));
+        }
+    }
+
+    private void ensureHeaderCapacity(int additional) {
+        if (headerLength + additional > header.length) {
+            header = Arrays.copyOf(header, Math.max(header.length * 2, headerLength + additional));
+        }
+    }
+
+    private static boolean isSeparator(char ch) {
+        return " ;,:@()<>\\\"/[]?={}\t".indexOf(ch) >= 0;
+    }
+}
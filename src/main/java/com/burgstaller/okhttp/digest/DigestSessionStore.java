@@ -0,0 +1,365 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.internal.platform.Platform;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the nonce sessions of a {@link DigestAuthenticator} across restarts, so that requests
+ * can be authenticated preemptively right away instead of every protection space going through a
+ * challenge again. See {@link DigestAuthenticator#restoreSessions(DigestSessionStore)}.
+ * <p>
+ * The store is a compact, append-only binary file: a header followed by one record per session,
+ * each framed by its length and a CRC32 so that a record torn by a crash is detected and ignored.
+ * Later records supersede earlier ones for the same protection space. {@link #compact(Map)}
+ * rewrites the file with the current sessions only.
+ * <p>
+ * Records are appended in the background, batched into a single write per burst, so that requests
+ * never wait for the file. A session is appended when it is established and again whenever its
+ * nonce count approaches the count recorded for it: every record reserves the next
+ * {@value #NONCE_COUNT_RESERVATION} nonce counts, and a restored session continues after the
+ * reserved range. A restarted client therefore never repeats a nonce count the server has already
+ * seen, at the price of a gap in the counts. This only holds for records that reached the file: if
+ * the process dies while the writer lags more than half a reservation behind, or the operating
+ * system loses data that was written but not yet synced, a restored session may repeat nonce
+ * counts, and the server rejects them with an ordinary challenge.
+ * <p>
+ * Restored nonces may have expired meanwhile, or the server may reject their nonce count. Both
+ * result in an ordinary challenge which is answered as usual.
+ */
+public final class DigestSessionStore implements Closeable {
+    private static final int MAGIC = 0x4f444753;
+    private static final int VERSION = 1;
+    private static final int SESSION_RECORD = 1;
+    /**
+     * Records beyond this size are considered corrupt.
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    /**
+     * The number of nonce counts reserved by every record, see the class documentation.
+     */
+    static final long NONCE_COUNT_RESERVATION = 128;
+
+    private final File file;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final Queue<PendingRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private DataOutputStream out;
+
+    /**
+     * Creates a store which appends records on its own background thread.
+     *
+     * @param file the file holding the sessions, it is created when the first session is stored.
+     */
+    public DigestSessionStore(File file) {
+        this.file = file;
+        this.ownExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "OkHttp DigestSessionStore " + file.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor = ownExecutor;
+    }
+
+    /**
+     * @param file     the file holding the sessions, it is created when the first session is stored.
+     * @param executor the executor to append records on, it is not shut down by {@link #close()}.
+     */
+    public DigestSessionStore(File file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+        this.ownExecutor = null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads all sessions stored so far, a torn record at the end of the file ends the stream.
+     *
+     * @return the sessions keyed by protection space.
+     * @throws IOException if the file is not a session store or cannot be read.
+     */
+    synchronized Map<String, NonceSession> load() throws IOException {
+        final Map<String, NonceSession> sessions = new LinkedHashMap<>();
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (final FileNotFoundException ex) {
+            return sessions;
+        }
+        try {
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a digest session store: " + file);
+                }
+                final int version = in.readUnsignedByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported digest session store version " + version + ": " + file);
+                }
+            } catch (final EOFException ex) {
+                // empty or torn header
+                return sessions;
+            }
+            final CRC32 crc = new CRC32();
+            while (true) {
+                final byte[] record;
+                try {
+                    final int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (final EOFException ex) {
+                    break;
+                }
+                readRecord(record, sessions);
+            }
+        } finally {
+            in.close();
+        }
+        return sessions;
+    }
+
+    /**
+     * Queues the given session to be appended and reserves its next nonce counts, the record is
+     * written in the background. If the executor rejects the write, e.g. after {@link #close()}, the
+     * record is written on the calling thread.
+     *
+     * @param key     the protection space of the session.
+     * @param session the session.
+     */
+    void append(String key, NonceSession session) {
+        pending.add(new PendingRecord(key, session, session.reserveNonceCounts(NONCE_COUNT_RESERVATION)));
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::writePending);
+            } catch (final RejectedExecutionException ex) {
+                writePending();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the session used up so many of its reserved nonce counts that it should be
+     * appended again.
+     *
+     * @param session the session.
+     * @return {@code true} if less than half of the reservation is left.
+     */
+    static boolean isReservationLow(NonceSession session) {
+        return session.getNonceCount() > session.getNonceCountLimit() - NONCE_COUNT_RESERVATION / 2;
+    }
+
+    private void writePending() {
+        writeScheduled.set(false);
+        try {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                writeRecords(openFile());
+                out.flush();
+            }
+        } catch (final IOException ex) {
+            Platform.get().log("Failed to persist the digest sessions to " + file, Platform.WARN, ex);
+        }
+    }
+
+    /**
+     * Writes and removes the queued records, the caller has to hold the lock of this store.
+     */
+    private void writeRecords(DataOutputStream out) throws IOException {
+        PendingRecord record;
+        while ((record = pending.poll()) != null) {
+            writeRecord(out, record.key, record.session, record.nonceCount);
+        }
+    }
+
+    /**
+     * Replaces the contents of the store with the given sessions and any queued records, reserving
+     * the next nonce counts of every session. The file is written next to the store and moved into
+     * place, so that the store is never left half written.
+     *
+     * @param sessions the sessions keyed by protection space.
+     * @throws IOException if the sessions could not be written.
+     */
+    synchronized void compact(Map<String, NonceSession> sessions) throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream compacted = new DataOutputStream(new FileOutputStream(temporary))) {
+            writeHeader(compacted);
+            for (Map.Entry<String, NonceSession> entry : sessions.entrySet()) {
+                final NonceSession session = entry.getValue();
+                writeRecord(compacted, entry.getKey(), session, session.reserveNonceCounts(NONCE_COUNT_RESERVATION));
+            }
+            // queued records are newer than the sessions passed in
+            writeRecords(compacted);
+        }
+        closeFile();
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the queued records and closes the file, it is reopened when the next session is
+     * stored. The background thread of a store created without an executor is stopped, later
+     * records are written on the thread appending them.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                writeRecords(openFile());
+            }
+            closeFile();
+        }
+    }
+
+    /**
+     * Opens the file for appending unless it is open, the caller has to hold the lock of this store.
+     */
+    private DataOutputStream openFile() throws IOException {
+        if (out == null) {
+            final boolean empty = file.length() == 0;
+            out = new DataOutputStream(new FileOutputStream(file, true));
+            if (empty) {
+                writeHeader(out);
+            }
+        }
+        return out;
+    }
+
+    private synchronized void closeFile() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    private static void writeRecord(OutputStream out, String key, NonceSession session, long nonceCount)
+            throws IOException {
+        final DigestChallenge challenge = session.getChallenge();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        final DataOutputStream record = new DataOutputStream(buffer);
+        record.writeByte(SESSION_RECORD);
+        record.writeUTF(key);
+        record.writeBoolean(session.isProxy());
+        writeNullable(record, challenge.getRealm());
+        record.writeUTF(challenge.getNonce());
+        writeNullable(record, challenge.getOpaque());
+        record.writeUTF(challenge.getAlgorithm());
+        writeNullable(record, challenge.getQop());
+        writeNullable(record, challenge.getCharset());
+        record.writeBoolean(challenge.isUserhash());
+        record.writeBoolean(challenge.isConnect());
+        record.writeUTF(session.getCnonce());
+        record.writeLong(nonceCount);
+        record.writeLong(session.getCreatedAtMillis());
+        record.flush();
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray(), 0, buffer.size());
+        final DataOutputStream framed = new DataOutputStream(out);
+        framed.writeInt(buffer.size());
+        buffer.writeTo(framed);
+        framed.writeInt((int) crc.getValue());
+    }
+
+    private static void readRecord(byte[] bytes, Map<String, NonceSession> sessions) throws IOException {
+        final DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (record.readUnsignedByte() != SESSION_RECORD) {
+            // written by a newer version
+            return;
+        }
+        final String key = record.readUTF();
+        final boolean proxy = record.readBoolean();
+        final String realm = readNullable(record);
+        final String nonce = record.readUTF();
+        final String opaque = readNullable(record);
+        final String algorithm = record.readUTF();
+        final String qop = readNullable(record);
+        final String charset = readNullable(record);
+        final boolean userhash = record.readBoolean();
+        final boolean connect = record.readBoolean();
+        final String cnonce = record.readUTF();
+        final long nonceCount = record.readLong();
+        final long createdAtMillis = record.readLong();
+        final DigestChallenge challenge = new DigestChallenge(realm, nonce, opaque, algorithm, qop, charset, false,
+                userhash, connect);
+        sessions.put(key, new NonceSession(challenge, proxy, cnonce, nonceCount, createdAtMillis));
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class PendingRecord {
+        final String key;
+        final NonceSession session;
+        final long nonceCount;
+
+        PendingRecord(String key, NonceSession session, long nonceCount) {
+            this.key = key;
+            this.session = session;
+            this.nonceCount = nonceCount;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.RequestBody;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers H(entity-body) of request bodies which were already hashed, so that retries after a
+ * challenge, redirects and follow-up calls sending the same body do not hash it again. Hashes
+ * may still be in progress (e.g. when calculated in the background), callers then wait for them.
+ * <p>
+ * Bodies are held weakly and compared by identity ({@link RequestBody} does not override
+ * {@code equals}), an entry disappears as soon as its body is no longer referenced. A body is
+ * expected to write the same content every time it is written, as required by OkHttp for bodies
+ * which are not one-shot.
+ */
+final class EntityDigestCache {
+    private final Map<RequestBody, Entry> entries = Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the hash of the given body, waiting for it if it is still being calculated.
+     *
+     * @return the hash or {@code null} if the body was not hashed before or its hashing failed.
+     * The returned array must not be modified.
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     */
+    byte[] get(RequestBody body, String algorithm) throws InterruptedIOException {
+        final CompletableFuture<byte[]> future = find(entries.get(body), algorithm);
+        if (future == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return await(future);
+    }
+
+    /**
+     * Registers the given pending hash unless the body already has one for the algorithm.
+     *
+     * @return the already registered hash or {@code null} if the given one was registered.
+     */
+    CompletableFuture<byte[]> putIfAbsent(RequestBody body, String algorithm, CompletableFuture<byte[]> future) {
+        final AtomicReference<CompletableFuture<byte[]>> existing = new AtomicReference<>();
+        entries.compute(body, (key, first) -> {
+            existing.set(find(first, algorithm));
+            return existing.get() != null ? first : new Entry(algorithm, future, first);
+        });
+        return existing.get();
+    }
+
+    void put(RequestBody body, String algorithm, byte[] hash) {
+        putIfAbsent(body, algorithm, CompletableFuture.completedFuture(hash));
+    }
+
+    /**
+     * Removes the given hash, e.g. because its calculation failed.
+     */
+    void remove(RequestBody body, String algorithm, CompletableFuture<byte[]> future) {
+        entries.computeIfPresent(body, (key, first) -> without(first, algorithm, future));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Waits for the given hash.
+     *
+     * @return the hash or {@code null} if its calculation failed.
+     */
+    static byte[] await(CompletableFuture<byte[]> future) throws InterruptedIOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the entity digest");
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private static CompletableFuture<byte[]> find(Entry first, String algorithm) {
+        for (Entry entry = first; entry != null; entry = entry.next) {
+            if (entry.algorithm.equals(algorithm)) {
+                return entry.hash;
+            }
+        }
+        return null;
+    }
+
+    private static Entry without(Entry entry, String algorithm, CompletableFuture<byte[]> future) {
+        if (entry == null) {
+            return null;
+        }
+        if (entry.algorithm.equals(algorithm) && entry.hash == future) {
+            return entry.next;
+        }
+        final Entry next = without(entry.next, algorithm, future);
+        return next == entry.next ? entry : new Entry(entry.algorithm, entry.hash, next);
+    }
+
+    /**
+     * The hashes of one body, usually there is only a single algorithm.
+     */
+    private static final class Entry {
+        private final String algorithm;
+        private final CompletableFuture<byte[]> hash;
+        private final Entry next;
+
+        Entry(String algorithm, CompletableFuture<byte[]> hash, Entry next) {
+            this.algorithm = algorithm;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Starts calculating H(entity-body) for {@code qop=auth-int} in the background as soon as a request
+ * with a body is intercepted whose protection space already challenged with {@code auth-int}. If
+ * that request is sent without valid credentials, e.g. because it is not preauthenticated by an
+ * {@link com.burgstaller.okhttp.AuthenticationCacheInterceptor} or because the server considers the
+ * nonce stale, hashing a large body overlaps with that round-trip instead of blocking OkHttp's retry
+ * after the challenge.
+ * <p>
+ * The first request to a protection space is not hashed in advance, as the algorithm and whether
+ * {@code auth-int} is offered at all are not known before its challenge. Preauthenticated requests
+ * are hashed while their credentials are created and are not sped up either.
+ * <p>
+ * This is opt-in, add it as network interceptor so that the route and thus sessions with a proxy
+ * are known:
+ * <pre>
+ * client.newBuilder()
+ *         .authenticator(digestAuthenticator)
+ *         .addNetworkInterceptor(new EntityDigestPrefetchInterceptor(digestAuthenticator, executor))
+ * </pre>
+ * Added as application interceptor, it only finds sessions with origin servers.
+ */
+public class EntityDigestPrefetchInterceptor implements Interceptor {
+    private final DigestAuthenticator authenticator;
+    private final Executor executor;
+
+    public EntityDigestPrefetchInterceptor(DigestAuthenticator authenticator, Executor executor) {
+        this.authenticator = authenticator;
+        this.executor = executor;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        if (request.body() != null) {
+            final Connection connection = chain.connection();
+            final Route route = connection != null ? connection.route() : null;
+            authenticator.prefetchEntityDigest(route, request, executor);
+        }
+        return chain.proceed(request);
+    }
+}
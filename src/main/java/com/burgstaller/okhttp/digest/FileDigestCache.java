@@ -0,0 +1,140 @@
+package com.burgstaller.okhttp.digest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates and caches the hashes of files, e.g. H(entity-body) of a {@link FileRequestBody}.
+ * Entries are keyed by path, size and modification time, so that a modified file is hashed again.
+ * A file which is rewritten with the same size within the granularity of its modification time
+ * (up to seconds on some file systems) is not detected, which is why caching is opt-in per
+ * {@link FileRequestBody}. Files are hashed through a memory mapping which is fed into the {@link MessageDigest} in chunks.
+ * Concurrent requests for the same file wait for the hash which is already being calculated.
+ */
+final class FileDigestCache {
+    /**
+     * The maximum size of a single mapping, keeps the address space used by large files bounded.
+     */
+    private static final long MAX_MAPPING_SIZE = 64L * 1024 * 1024;
+
+    private final int maxSize;
+    private final ConcurrentMap<Key, CompletableFuture<byte[]>> entries = new ConcurrentHashMap<>();
+
+    FileDigestCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the hash of the given file, calculating it only if the file was not hashed with the
+     * same algorithm before or if it was modified since.
+     *
+     * @param file     the file to hash.
+     * @param digester the engine to use, its algorithm is part of the cache key.
+     * @return the hash of the file contents. The returned array must not be modified.
+     * @throws IOException in case the file could not be read.
+     */
+    byte[] digest(File file, MessageDigest digester) throws IOException {
+        final Key key = new Key(file.getAbsolutePath(), file.length(), file.lastModified(),
+                digester.getAlgorithm());
+        while (true) {
+            final CompletableFuture<byte[]> cached = entries.get(key);
+            if (cached != null) {
+                final byte[] hash = EntityDigestCache.await(cached);
+                if (hash != null) {
+                    return hash;
+                }
+                // the calculation failed on another thread, try on our own
+                entries.remove(key, cached);
+                continue;
+            }
+            if (entries.size() >= maxSize) {
+                final Iterator<Key> iterator = entries.keySet().iterator();
+                if (iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            final CompletableFuture<byte[]> created = new CompletableFuture<>();
+            if (entries.putIfAbsent(key, created) != null) {
+                continue;
+            }
+            try {
+                final byte[] hash = digestMapped(file, digester);
+                created.complete(hash);
+                return hash;
+            } catch (IOException | RuntimeException e) {
+                entries.remove(key, created);
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Hashes the given file without caching the result.
+     */
+    static byte[] digestMapped(File file, MessageDigest digester) throws IOException {
+        digester.reset();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            for (long position = 0; position < size; position += MAX_MAPPING_SIZE) {
+                final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAX_MAPPING_SIZE, size - position));
+                digester.update(mapping);
+            }
+        }
+        return digester.digest();
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final String algorithm;
+        private final int hash;
+
+        Key(String path, long length, long lastModified, String algorithm) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.algorithm = algorithm;
+            int h = path.hashCode();
+            h = 31 * h + Long.hashCode(length);
+            h = 31 * h + Long.hashCode(lastModified);
+            h = 31 * h + algorithm.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return length == other.length
+                    && lastModified == other.lastModified
+                    && path.equals(other.path)
+                    && algorithm.equals(other.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
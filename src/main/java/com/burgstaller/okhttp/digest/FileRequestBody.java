@@ -0,0 +1,74 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A request body backed by a file. When such a body is sent with {@code qop=auth-int} the
+ * {@link DigestAuthenticator} hashes the file via a memory mapping instead of streaming it through
+ * the heap. Like for any other body, the hash is remembered while the body is in use.
+ * <p>
+ * Optionally the hash is also remembered across bodies of the same file, until the file changes.
+ * A change is detected by the size and modification time of the file only: if the file is rewritten
+ * with the same size within the granularity of its modification time (up to seconds on some file
+ * systems), the stale hash is sent and the server rejects the request. Only enable this for files
+ * which are replaced rather than rewritten in place.
+ */
+public final class FileRequestBody extends RequestBody {
+    private final File file;
+    private final MediaType contentType;
+    private final boolean digestCached;
+
+    public FileRequestBody(File file, MediaType contentType) {
+        this(file, contentType, false);
+    }
+
+    /**
+     * @param file         the file to send.
+     * @param contentType  the content type of the file.
+     * @param digestCached {@code true} to remember the hash of the file across bodies until its size
+     *                     or modification time changes.
+     */
+    public FileRequestBody(File file, MediaType contentType, boolean digestCached) {
+        if (file == null) {
+            throw new IllegalArgumentException("file may not be null");
+        }
+        this.file = file;
+        this.contentType = contentType;
+        this.digestCached = digestCached;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return {@code true} if the hash of the file is remembered across bodies.
+     */
+    public boolean isDigestCached() {
+        return digestCached;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (Source source = Okio.source(file)) {
+            sink.writeAll(source);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.burgstaller.okhttp.digest;
+
+import com.burgstaller.okhttp.digest.fromhttpclient.UnsupportedDigestAlgorithmException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock free pool of {@link MessageDigest} engines keyed by algorithm name. Looking up
+ * a digest via {@link MessageDigest#getInstance(String)} involves a provider lookup and a fresh
+ * engine allocation, the pool allows these engines to be reset and reused instead.
+ * <p>
+ * Every engine obtained via {@link #acquire(String)} should be handed back via
+ * {@link #release(MessageDigest)}, every engine obtained via {@link #acquire(DigestAlgorithm)} via
+ * {@link #release(DigestAlgorithm, MessageDigest)} once it is no longer used.
+ */
+public final class MessageDigestPool {
+    /**
+     * The default number of idle engines kept per algorithm.
+     */
+    public static final int DEFAULT_MAX_IDLE_PER_ALGORITHM = 16;
+
+    private static final MessageDigestPool DEFAULT = new MessageDigestPool(DEFAULT_MAX_IDLE_PER_ALGORITHM);
+
+    private final ConcurrentMap<String, Engines> pools = new ConcurrentHashMap<>();
+    private final int maxIdlePerAlgorithm;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public MessageDigestPool(int maxIdlePerAlgorithm) {
+        if (maxIdlePerAlgorithm < 0) {
+            throw new IllegalArgumentException("maxIdlePerAlgorithm must not be negative: " + maxIdlePerAlgorithm);
+        }
+        this.maxIdlePerAlgorithm = maxIdlePerAlgorithm;
+    }
+
+    /**
+     * @return the pool shared by all {@link DigestAuthenticator}s.
+     */
+    public static MessageDigestPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns an engine for the given algorithm, either taken from the pool or freshly created.
+     *
+     * @param algorithm the JCA name of the digest algorithm, e.g. {@code MD5}.
+     * @return a digest engine in its initial state.
+     * @throws UnsupportedDigestAlgorithmException if the algorithm is not supported by any provider.
+     */
+    public MessageDigest acquire(String algorithm) {
+        final MessageDigest pooled = getEngines(algorithm).poll();
+        if (pooled != null) {
+            hitCount.incrementAndGet();
+            return pooled;
+        }
+        missCount.incrementAndGet();
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnsupportedDigestAlgorithmException(
+                    "Unsupported algorithm in HTTP Digest authentication: " + algorithm, e);
+        }
+    }
+
+    /**
+     * Returns an engine for the hash of the given algorithm, either taken from the pool or freshly
+     * created via the factory of the algorithm.
+     *
+     * @param algorithm the digest algorithm.
+     * @return a digest engine in its initial state.
+     * @throws UnsupportedDigestAlgorithmException if the hash of the algorithm is not available.
+     */
+    public MessageDigest acquire(DigestAlgorithm algorithm) {
+        final MessageDigest pooled = getEngines(algorithm.getHashName()).poll();
+        if (pooled != null) {
+            hitCount.incrementAndGet();
+            return pooled;
+        }
+        missCount.incrementAndGet();
+        return algorithm.newEngine();
+    }
+
+    /**
+     * Resets the given engine and returns it to the pool. If the pool for the algorithm is already
+     * full the engine is discarded.
+     *
+     * @param digest the engine previously obtained via {@link #acquire(String)}, may be {@code null}.
+     */
+    public void release(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        digest.reset();
+        getEngines(digest.getAlgorithm()).offer(digest);
+    }
+
+    /**
+     * Resets the given engine and returns it to the pool of the hash of the given algorithm. The
+     * engine is pooled under the same name it was acquired with, which may differ from
+     * {@link MessageDigest#getAlgorithm()} for engines created by a registered factory. If the pool
+     * is already full the engine is discarded.
+     *
+     * @param algorithm the algorithm the engine was acquired for.
+     * @param digest    the engine previously obtained via {@link #acquire(DigestAlgorithm)}, may be
+     *                  {@code null}.
+     */
+    public void release(DigestAlgorithm algorithm, MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        digest.reset();
+        getEngines(algorithm.getHashName()).offer(digest);
+    }
+
+    /**
+     * @return the number of idle engines currently held by the pool across all algorithms.
+     */
+    public int size() {
+        int size = 0;
+        for (Engines engines : pools.values()) {
+            size += engines.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of {@link #acquire(String)} and {@link #acquire(DigestAlgorithm)} calls which
+     * were served from the pool.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of {@link #acquire(String)} and {@link #acquire(DigestAlgorithm)} calls which
+     * had to create a new engine.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of acquisitions served from the pool, {@code 0} if nothing was acquired yet.
+     */
+    public double getHitRate() {
+        final long hits = hitCount.get();
+        final long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private Engines getEngines(String algorithm) {
+        Engines engines = pools.get(algorithm);
+        if (engines == null) {
+            final Engines newEngines = new Engines(maxIdlePerAlgorithm);
+            engines = pools.putIfAbsent(algorithm, newEngines);
+            if (engines == null) {
+                engines = newEngines;
+            }
+        }
+        return engines;
+    }
+
+    /**
+     * The idle engines of a single algorithm.
+     */
+    private static final class Engines {
+        private final Queue<MessageDigest> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int maxIdle;
+
+        Engines(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        MessageDigest poll() {
+            final MessageDigest digest = idle.poll();
+            if (digest != null) {
+                size.decrementAndGet();
+            }
+            return digest;
+        }
+
+        void offer(MessageDigest digest) {
+            if (size.incrementAndGet() > maxIdle) {
+                size.decrementAndGet();
+                return;
+            }
+            idle.offer(digest);
+        }
+
+        int size() {
+            return size.get();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.burgstaller.okhttp.digest;
+
+/**
+ * What has been learned about the nonces of one protection space, based on the stale challenges
+ * received so far. Servers either expire their nonces after a fixed interval or after a fixed
+ * number of requests; the latter is assumed once two nonces expired at the same nonce count.
+ */
+final class NonceLifetime {
+    /**
+     * Nonces are refreshed once they reached this percentage of their observed lifetime.
+     */
+    private static final int REFRESH_PERCENTAGE = 90;
+    /**
+     * The shortest lifetime assumed. A stale challenge right after the nonce was issued (e.g. a
+     * server whose clock jumped) must not make every request due for a refresh.
+     */
+    static final long MIN_LIFETIME_MILLIS = 1000;
+
+    private final long lifetimeMillis;
+    private final long nonceCount;
+    private final boolean countLimited;
+    private final int observations;
+
+    private NonceLifetime(long lifetimeMillis, long nonceCount, boolean countLimited, int observations) {
+        this.lifetimeMillis = lifetimeMillis;
+        this.nonceCount = nonceCount;
+        this.countLimited = countLimited;
+        this.observations = observations;
+    }
+
+    /**
+     * Records the expiry of the given session.
+     *
+     * @param previous   what was learned before, {@code null} for the first observation.
+     * @param expired    the session whose nonce was reported stale.
+     * @param nowMillis  the time the stale challenge was received.
+     * @return the updated lifetime.
+     */
+    static NonceLifetime observe(NonceLifetime previous, NonceSession expired, long nowMillis) {
+        final long lifetime = Math.max(MIN_LIFETIME_MILLIS, nowMillis - expired.getCreatedAtMillis());
+        final long count = expired.getNonceCount();
+        if (previous == null) {
+            return new NonceLifetime(lifetime, count, false, 1);
+        }
+        // the stale challenge is only noticed with the first request after the expiry, so the
+        // shortest lifetime seen is the best estimate
+        return new NonceLifetime(Math.min(previous.lifetimeMillis, lifetime), count,
+                count == previous.nonceCount, previous.observations + 1);
+    }
+
+    /**
+     * @return {@code true} if the nonce of the given session is about to expire and should be
+     * refreshed before the next request.
+     */
+    boolean isRefreshDue(NonceSession session, long nowMillis) {
+        if (countLimited) {
+            return session.getNonceCount() + 1 >= nonceCount;
+        }
+        final long age = nowMillis - session.getCreatedAtMillis();
+        return age * 100 >= lifetimeMillis * REFRESH_PERCENTAGE;
+    }
+
+    long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    long getNonceCount() {
+        return nonceCount;
+    }
+
+    boolean isCountLimited() {
+        return countLimited;
+    }
+
+    int getObservations() {
+        return observations;
+    }
+}
@@ -0,0 +1,133 @@
+package com.burgstaller.okhttp.digest;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side state for one server nonce within one protection space. The challenge, cnonce and
+ * creation time are fixed for the lifetime of the session. The nonce count is incremented
+ * atomically so that concurrent requests never send the same nc twice. The remaining state is
+ * bookkeeping which does not affect the digest: whether a refresh of the nonce was requested, the
+ * pre-rendered header template, which is rendered lazily, and whether and up to which nonce count
+ * the session was recorded in a {@link DigestSessionStore}.
+ */
+final class NonceSession {
+    private final DigestChallenge challenge;
+    private final boolean proxy;
+    private final String nonce;
+    private final String cnonce;
+    private final long createdAtMillis;
+    private final AtomicLong nonceCount;
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+    private final AtomicBoolean persisted = new AtomicBoolean();
+    private final AtomicLong nonceCountLimit;
+    private volatile DigestHeaderTemplate headerTemplate;
+
+    /**
+     * @param challenge the parsed challenge, must contain a nonce.
+     * @param proxy     {@code true} if the challenge was sent by a proxy.
+     * @param cnonce    the client nonce used for all requests of this session.
+     */
+    NonceSession(DigestChallenge challenge, boolean proxy, String cnonce) {
+        this(challenge, proxy, cnonce, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * Restores a persisted session.
+     *
+     * @param nonceCount      the nonce count used by the most recent request.
+     * @param createdAtMillis the time the challenge was originally received.
+     */
+    NonceSession(DigestChallenge challenge, boolean proxy, String cnonce, long nonceCount, long createdAtMillis) {
+        this.challenge = challenge;
+        this.proxy = proxy;
+        this.nonce = challenge.getNonce();
+        this.cnonce = cnonce;
+        this.nonceCount = new AtomicLong(nonceCount);
+        this.nonceCountLimit = new AtomicLong(nonceCount);
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    DigestChallenge getChallenge() {
+        return challenge;
+    }
+
+    boolean isProxy() {
+        return proxy;
+    }
+
+    String getNonce() {
+        return nonce;
+    }
+
+    String getCnonce() {
+        return cnonce;
+    }
+
+    /**
+     * @return the wall clock time at which the challenge for this session was received.
+     */
+    long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    /**
+     * @return the pre-rendered invariant header parts, {@code null} if none were rendered yet.
+     */
+    DigestHeaderTemplate getHeaderTemplate() {
+        return headerTemplate;
+    }
+
+    void setHeaderTemplate(DigestHeaderTemplate headerTemplate) {
+        this.headerTemplate = headerTemplate;
+    }
+
+    /**
+     * Marks this session as written to a {@link DigestSessionStore}.
+     *
+     * @return {@code true} if it was not marked before.
+     */
+    boolean markPersisted() {
+        return persisted.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the nonce count to be used for the next request, starting with 1.
+     */
+    long nextNonceCount() {
+        return nonceCount.incrementAndGet();
+    }
+
+    /**
+     * @return the nonce count used by the most recent request.
+     */
+    long getNonceCount() {
+        return nonceCount.get();
+    }
+
+    /**
+     * Claims the refresh of this session's nonce.
+     *
+     * @return {@code true} for the first caller only.
+     */
+    boolean requestRefresh() {
+        return refreshRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the nonce count up to which this session was recorded in a {@link DigestSessionStore}.
+     */
+    long getNonceCountLimit() {
+        return nonceCountLimit.get();
+    }
+
+    /**
+     * Reserves the given number of nonce counts beyond the current one.
+     *
+     * @return the nonce count up to which this session is reserved now.
+     */
+    long reserveNonceCounts(long reservation) {
+        final long limit = nonceCount.get() + reservation;
+        return nonceCountLimit.accumulateAndGet(limit, Math::max);
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.burgstaller.okhttp.digest.fromhttpclient;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -31,9 +32,19 @@ import okio.ByteString;
 import okio.Source;
 import okio.Timeout;
 
+/**
+ * A {@link BufferedSink} which feeds everything written to it into a {@link MessageDigest}, e.g. in
+ * order to calculate H(entity-body) for {@code qop=auth-int} via {@link okhttp3.RequestBody#writeTo}.
+ * <p>
+ * Data written through the typed methods is collected in the {@link #buffer()} and digested
+ * segment by segment straight from okio's segment arrays, so the memory used does not depend on
+ * the size of the body. Byte arrays and byte buffers are digested directly.
+ */
 public class HttpEntityDigester implements BufferedSink {
+    private static final long SEGMENT_SIZE = 8192L;
 
     private final MessageDigest digester;
+    private final Buffer.UnsafeCursor cursor = new Buffer.UnsafeCursor();
     private boolean closed;
     private byte[] digest;
     Buffer buffer;
@@ -52,129 +63,193 @@ public class HttpEntityDigester implements BufferedSink {
 
     @Override
     public BufferedSink write(ByteString byteString) throws IOException {
-        this.digester.update(byteString.toByteArray());
+        checkNotClosed();
+        digestBuffer(buffer.size());
+        this.digester.update(byteString.asByteBuffer());
         return this;
     }
 
+    @Override
+    public BufferedSink write(ByteString byteString, int offset, int byteCount) throws IOException {
+        checkNotClosed();
+        buffer.write(byteString, offset, byteCount);
+        return emitCompleteSegments();
+    }
+
     @Override
     public BufferedSink write(byte[] source) throws IOException {
+        checkNotClosed();
+        digestBuffer(buffer.size());
         this.digester.update(source);
         return this;
     }
 
     @Override
     public BufferedSink write(byte[] source, int offset, int byteCount) throws IOException {
+        checkNotClosed();
+        digestBuffer(buffer.size());
         this.digester.update(source, offset, byteCount);
         return this;
     }
 
     @Override
     public long writeAll(Source source) throws IOException {
-        return 0;
+        checkNotClosed();
+        long totalBytesRead = 0;
+        for (long readCount; (readCount = source.read(buffer, SEGMENT_SIZE)) != -1; ) {
+            totalBytesRead += readCount;
+            emitCompleteSegments();
+        }
+        return totalBytesRead;
     }
 
     @Override
     public BufferedSink write(Source source, long byteCount) throws IOException {
-        if (this.closed) {
-            throw new IOException("Stream has been already closed");
+        checkNotClosed();
+        while (byteCount > 0) {
+            final long read = source.read(buffer, Math.min(byteCount, SEGMENT_SIZE));
+            if (read == -1) {
+                throw new EOFException();
+            }
+            byteCount -= read;
+            emitCompleteSegments();
         }
-        // this.digester.update(b, off, len);
-
-        return null;
+        return this;
     }
 
     @Override
     public void write(Buffer source, long byteCount) throws IOException {
-
-    }
-
-    @Override
-    public BufferedSink write(ByteString arg0, int arg1, int arg2) throws IOException {
-        return null;
+        checkNotClosed();
+        // moves the segments of the source, no bytes are copied
+        buffer.write(source, byteCount);
+        emitCompleteSegments();
     }
 
     @Override
     public int write(ByteBuffer byteBuffer) throws IOException {
-        return 0;
+        checkNotClosed();
+        digestBuffer(buffer.size());
+        final int byteCount = byteBuffer.remaining();
+        this.digester.update(byteBuffer);
+        return byteCount;
     }
 
     @Override
     public BufferedSink writeUtf8(String string) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeUtf8(string);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeUtf8(String string, int beginIndex, int endIndex) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeUtf8(string, beginIndex, endIndex);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeUtf8CodePoint(int codePoint) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeUtf8CodePoint(codePoint);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeString(String string, Charset charset) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeString(string, charset);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeString(String string, int beginIndex, int endIndex, Charset charset) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeString(string, beginIndex, endIndex, charset);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeByte(int b) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeByte(b);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeShort(int s) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeShort(s);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeShortLe(int s) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeShortLe(s);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeInt(int i) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeInt(i);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeIntLe(int i) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeIntLe(i);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeLong(long v) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeLong(v);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeLongLe(long v) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeLongLe(v);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeDecimalLong(long v) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeDecimalLong(v);
+        return emitCompleteSegments();
     }
 
     @Override
     public BufferedSink writeHexadecimalUnsignedLong(long v) throws IOException {
-        return null;
+        checkNotClosed();
+        buffer.writeHexadecimalUnsignedLong(v);
+        return emitCompleteSegments();
     }
 
+    /**
+     * Digests the complete segments of the buffer. Bytes are digested in order, so the trailing
+     * partial segment is kept until it is full or the sink is flushed.
+     */
     @Override
     public BufferedSink emitCompleteSegments() throws IOException {
-        return null;
+        checkNotClosed();
+        final long byteCount = buffer.completeSegmentByteCount();
+        if (byteCount > 0) {
+            digestBuffer(byteCount);
+        }
+        return this;
     }
 
     @Override
     public BufferedSink emit() throws IOException {
+        checkNotClosed();
+        digestBuffer(buffer.size());
         return this;
     }
 
@@ -193,8 +268,7 @@ public class HttpEntityDigester implements BufferedSink {
             public void write(byte[] data, int offset, int byteCount) throws IOException {
                 if (closed)
                     throw new IOException("closed");
-                buffer.write(data, offset, byteCount);
-                emitCompleteSegments();
+                HttpEntityDigester.this.write(data, offset, byteCount);
             }
 
             @Override
@@ -219,17 +293,17 @@ public class HttpEntityDigester implements BufferedSink {
 
     @Override
     public void flush() throws IOException {
-
+        emit();
     }
 
     @Override
     public Timeout timeout() {
-        return null;
+        return Timeout.NONE;
     }
 
     @Override
     public boolean isOpen() {
-        return false;
+        return !closed;
     }
 
     @Override
@@ -237,11 +311,15 @@ public class HttpEntityDigester implements BufferedSink {
         if (this.closed) {
             return;
         }
+        digestBuffer(buffer.size());
         this.closed = true;
         this.digest = this.digester.digest();
         buffer.close();
     }
 
+    /**
+     * @return the digest of everything written, {@code null} until the sink has been closed.
+     */
     public byte[] getDigest() {
         return this.digest;
     }
@@ -251,4 +329,32 @@ public class HttpEntityDigester implements BufferedSink {
         return buffer;
     }
 
-}
\ No newline at end of file
+    /**
+     * Feeds the first {@code byteCount} bytes of the buffer into the digester directly from the
+     * segment arrays and removes them from the buffer.
+     */
+    private void digestBuffer(long byteCount) throws IOException {
+        if (byteCount == 0) {
+            return;
+        }
+        long remaining = byteCount;
+        buffer.readUnsafe(cursor);
+        try {
+            for (int length = cursor.next(); length != -1 && remaining > 0; length = cursor.next()) {
+                final int count = (int) Math.min(length, remaining);
+                digester.update(cursor.data, cursor.start, count);
+                remaining -= count;
+            }
+        } finally {
+            cursor.close();
+        }
+        buffer.skip(byteCount);
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream has been already closed");
+        }
+    }
+
+}
@@ -23,4 +23,8 @@ public class UnsupportedDigestAlgorithmException extends IllegalStateException {
     public UnsupportedDigestAlgorithmException(String detailMessage) {
         super(detailMessage);
     }
+
+    public UnsupportedDigestAlgorithmException(String detailMessage, Throwable cause) {
+        super(detailMessage, cause);
+    }
 }
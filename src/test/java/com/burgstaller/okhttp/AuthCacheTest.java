@@ -0,0 +1,191 @@
+package com.burgstaller.okhttp;
+
+import com.burgstaller.okhttp.digest.CachingAuthenticator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class AuthCacheTest {
+
+    private final AtomicLong ticker = new AtomicLong();
+    private final List<String> evictions = new ArrayList<>();
+
+    @Test
+    public void testPut__beyondMaximumSize__shouldEvictLeastRecentlyUsed() {
+        // given
+        AuthCache cache = new AuthCache(2, 0, TimeUnit.SECONDS, 1, ticker::get);
+        cache.addEvictionListener((key, authenticator, cause) -> evictions.add(key + ":" + cause));
+        CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        cache.put("a", authenticator);
+        ticker.incrementAndGet();
+        cache.put("b", authenticator);
+        ticker.incrementAndGet();
+        cache.get("a");
+        ticker.incrementAndGet();
+
+        // when
+        cache.put("c", authenticator);
+
+        // then
+        assertThat(cache.keySet()).containsOnly("a", "c");
+        assertThat(evictions).containsExactly("b:SIZE");
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet__afterIdleTime__shouldExpire() {
+        // given
+        AuthCache cache = new AuthCache(10, 5, TimeUnit.SECONDS, 1, ticker::get);
+        cache.addEvictionListener((key, authenticator, cause) -> evictions.add(key + ":" + cause));
+        CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        cache.put("a", authenticator);
+        cache.put("b", authenticator);
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        assertThat(cache.get("a")).isSameAs(authenticator);
+
+        // when
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+        // then
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isSameAs(authenticator);
+        assertThat(evictions).containsExactly("b:EXPIRED");
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCleanUp__shouldEvictAllExpiredEntries() {
+        // given
+        AuthCache cache = new AuthCache(100, 1, TimeUnit.MINUTES, 4, ticker::get);
+        CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        for (int i = 0; i < 50; i++) {
+            cache.put("host" + i, authenticator);
+        }
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+        // when
+        cache.cleanUp();
+
+        // then
+        assertThat(cache.isEmpty()).isTrue();
+        assertThat(cache.getEvictionCount()).isEqualTo(50);
+    }
+
+    @Test
+    public void testPut__manyHosts__shouldStayBounded() {
+        // given
+        AuthCache cache = new AuthCache(64);
+        CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+
+        // when
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("http://host" + i + ":80", authenticator);
+        }
+
+        // then
+        assertThat(cache.size()).isLessThanOrEqualTo(64);
+        assertThat(cache.getEvictionCount()).isEqualTo(10_000 - cache.size());
+    }
+
+    @Test
+    public void testPut__beyondMaximumSize__shouldEvictDownToLowWaterMark() {
+        // given
+        AuthCache cache = new AuthCache(64, 0, TimeUnit.SECONDS, 1, ticker::get);
+        cache.addEvictionListener((key, authenticator, cause) -> evictions.add(key + ":" + cause));
+        CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        for (int i = 0; i < 64; i++) {
+            cache.put("host" + i, authenticator);
+            ticker.incrementAndGet();
+        }
+
+        // when
+        cache.put("host64", authenticator);
+        for (int i = 65; i < 69; i++) {
+            cache.put("host" + i, authenticator);
+        }
+
+        // then
+        assertThat(evictions).containsExactlyInAnyOrder("host0:SIZE", "host1:SIZE", "host2:SIZE", "host3:SIZE", "host4:SIZE");
+        assertThat(cache.size()).isEqualTo(64);
+    }
+
+    @Test
+    public void testConditionalOperations__shouldBehaveLikeConcurrentMap() {
+        // given
+        AuthCache cache = new AuthCache(10);
+        CachingAuthenticator first = mock(CachingAuthenticator.class);
+        CachingAuthenticator second = mock(CachingAuthenticator.class);
+
+        // when / then
+        assertThat(cache.putIfAbsent("a", first)).isNull();
+        assertThat(cache.putIfAbsent("a", second)).isSameAs(first);
+        assertThat(cache.replace("a", second, first)).isFalse();
+        assertThat(cache.replace("a", first, second)).isTrue();
+        assertThat(cache.remove("a", first)).isFalse();
+        assertThat(cache.remove("a")).isSameAs(second);
+        assertThat(cache.containsKey("a")).isFalse();
+    }
+
+    @Test
+    public void testGetAndPut__concurrently__shouldStayBounded() throws Exception {
+        // given
+        final AuthCache cache = new AuthCache(16);
+        final CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        for (int thread = 0; thread < 8; thread++) {
+            final int offset = thread * 1000;
+            executor.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cache.put("host" + (offset + i), authenticator);
+                    cache.get("host" + (offset + i));
+                    cache.get("host0");
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        // then
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+        assertThat(cache.getEvictionCount()).isEqualTo(8000 - cache.size());
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(16000);
+    }
+
+    @Test
+    public void testPut__atCapacityConcurrently__shouldStayBounded() throws Exception {
+        // given
+        final AuthCache cache = new AuthCache(256);
+        final CachingAuthenticator authenticator = mock(CachingAuthenticator.class);
+        for (int i = 0; i < 256; i++) {
+            cache.put("initial" + i, authenticator);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        for (int thread = 0; thread < 8; thread++) {
+            final int offset = thread * 2000;
+            executor.execute(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    cache.put("host" + (offset + i), authenticator);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        // then
+        assertThat(cache.size()).isLessThanOrEqualTo(256);
+        assertThat(cache.getEvictionCount()).isEqualTo(256 + 16000 - cache.size());
+    }
+}
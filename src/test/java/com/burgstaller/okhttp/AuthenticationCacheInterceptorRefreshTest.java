@@ -0,0 +1,149 @@
+package com.burgstaller.okhttp;
+
+import com.burgstaller.okhttp.digest.CachingAuthenticator;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the proactive refresh of {@link AuthenticationCacheInterceptor} against a server.
+ */
+public class AuthenticationCacheInterceptorRefreshTest {
+
+    @Test
+    public void testProactiveRefresh__shouldRefreshOnceInTheBackground() throws Exception {
+        // given
+        final CountDownLatch headReleased = new CountDownLatch(1);
+        final AtomicInteger headCount = new AtomicInteger();
+        final AtomicInteger refreshCount = new AtomicInteger();
+        MockWebServer server = givenServerBlockingHeadRequests(headReleased, headCount);
+        try {
+            String url = server.url("/path").toString();
+            Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+            authCache.put(new DefaultRequestCacheKeyProvider().getCachingKey(new Request.Builder().url(url).build()),
+                    givenExpiringAuthenticator(refreshCount, false));
+            AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .addInterceptor(interceptor)
+                    .build();
+            interceptor.setProactiveRefresh(client);
+
+            // when: the refresh is still in flight
+            for (int i = 0; i < 3; i++) {
+                try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                    assertThat(response.code()).isEqualTo(200);
+                }
+            }
+            headReleased.countDown();
+            awaitCount(refreshCount, 1);
+
+            // then
+            assertThat(headCount.get()).isEqualTo(1);
+            assertThat(refreshCount.get()).isEqualTo(1);
+        } finally {
+            headReleased.countDown();
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testProactiveRefresh__whenRefreshFails__shouldNotFailRequests() throws Exception {
+        // given
+        final CountDownLatch headReleased = new CountDownLatch(0);
+        final AtomicInteger headCount = new AtomicInteger();
+        final AtomicInteger refreshCount = new AtomicInteger();
+        MockWebServer server = givenServerBlockingHeadRequests(headReleased, headCount);
+        try {
+            String url = server.url("/path").toString();
+            Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+            authCache.put(new DefaultRequestCacheKeyProvider().getCachingKey(new Request.Builder().url(url).build()),
+                    givenExpiringAuthenticator(refreshCount, true));
+            AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .addInterceptor(interceptor)
+                    .build();
+            interceptor.setProactiveRefresh(client);
+
+            // when / then: every request succeeds and a failed refresh is retried with a later request
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (headCount.get() < 2 && System.nanoTime() < deadline) {
+                try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                    assertThat(response.code()).isEqualTo(200);
+                }
+            }
+            assertThat(headCount.get()).isGreaterThanOrEqualTo(2);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static MockWebServer givenServerBlockingHeadRequests(final CountDownLatch headReleased,
+                                                                 final AtomicInteger headCount) throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (!"HEAD".equals(request.getMethod())) {
+                    return new MockResponse().setBody("OK");
+                }
+                headCount.incrementAndGet();
+                headReleased.await(10, TimeUnit.SECONDS);
+                assertThat(request.getHeader("Authorization")).isNull();
+                return new MockResponse()
+                        .setResponseCode(HTTP_UNAUTHORIZED)
+                        .addHeader("WWW-Authenticate", "Basic realm=\"myrealm\"");
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static CachingAuthenticator givenExpiringAuthenticator(final AtomicInteger refreshCount,
+                                                                   final boolean failRefresh) {
+        return new CachingAuthenticator() {
+            @Override
+            public Request authenticateWithState(Route route, Request request) {
+                return request.newBuilder()
+                        .header("Authorization", "Basic dXNlcjE6dXNlcjE=")
+                        .build();
+            }
+
+            @Override
+            public Request authenticate(Route route, Response response) throws IOException {
+                refreshCount.incrementAndGet();
+                if (failRefresh) {
+                    throw new IOException("refresh failed");
+                }
+                return null;
+            }
+
+            @Override
+            public boolean isRefreshDue(Route route, Request request) {
+                return true;
+            }
+        };
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (count.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
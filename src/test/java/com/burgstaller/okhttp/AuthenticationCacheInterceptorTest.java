@@ -3,6 +3,7 @@ package com.burgstaller.okhttp;
 import com.burgstaller.okhttp.basic.BasicAuthenticator;
 import com.burgstaller.okhttp.digest.CachingAuthenticator;
 import com.burgstaller.okhttp.digest.Credentials;
+import com.burgstaller.okhttp.digest.DigestAuthenticator;
 import okhttp3.Address;
 import okhttp3.Authenticator;
 import okhttp3.Connection;
@@ -12,9 +13,15 @@ import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.Route;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -26,13 +33,17 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.ProxySelector;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
 
 /**
@@ -89,6 +100,178 @@ public class AuthenticationCacheInterceptorTest {
         thenAuthCacheShouldBeEmpty(authCache);
     }
 
+    @Test
+    public void testCaching_withExpiredAuthentication__shouldAnswerChallengeDirectly() throws Exception {
+        // given
+        Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        final String dummyUrl = "https://myhost.com/path";
+        givenCachedAuthenticationFor(dummyUrl, authCache);
+        AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        final List<String> sentAuthorizations = new ArrayList<>();
+        Request request = new Request.Builder()
+                .url(dummyUrl)
+                .get()
+                .build();
+
+        // when
+        Response response = interceptor.intercept(new ChainAdapter(request, mockConnection) {
+            @Override
+            public Response proceed(Request request) {
+                sentAuthorizations.add(request.header("Authorization"));
+                if (sentAuthorizations.size() == 1) {
+                    return givenUnauthorizedServerResponse(request);
+                }
+                return new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .build();
+            }
+        });
+
+        // then
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(sentAuthorizations).containsExactly("Basic dXNlcjE6dXNlcjE=", "Basic dXNlcjE6dXNlcjE=");
+        assertThat(interceptor.getSavedRoundTripCount()).isEqualTo(1);
+        assertThat(authCache).hasSize(1);
+    }
+
+    @Test
+    public void testCaching_withExpiredAuthentication__whenServerSwitchesScheme__shouldResendWithoutAuthorization()
+            throws Exception {
+        // given: a cached digest authentication
+        Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        final String dummyUrl = "https://myhost.com/path";
+        Authenticator decorator = new CachingAuthenticatorDecorator(
+                new DigestAuthenticator(new Credentials("user1", "user1")), authCache);
+        Request dummyRequest = new Request.Builder()
+                .url(dummyUrl)
+                .get()
+                .build();
+        decorator.authenticate(null, new Response.Builder()
+                .request(dummyRequest)
+                .protocol(Protocol.HTTP_1_1)
+                .code(HTTP_UNAUTHORIZED)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", "Digest realm=\"myrealm\", nonce=\"AAAAAA\", qop=\"auth\"")
+                .build());
+        AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        final List<String> sentAuthorizations = new ArrayList<>();
+
+        // when: the server now asks for basic authentication
+        Response response = interceptor.intercept(new ChainAdapter(dummyRequest, mockConnection) {
+            @Override
+            public Response proceed(Request request) {
+                sentAuthorizations.add(request.header("Authorization"));
+                return givenUnauthorizedServerResponse(request);
+            }
+        });
+
+        // then: the client's authenticator gets to answer the challenge
+        assertThat(response.code()).isEqualTo(HTTP_UNAUTHORIZED);
+        assertThat(sentAuthorizations).hasSize(2);
+        assertThat(sentAuthorizations.get(0)).startsWith("Digest ");
+        assertThat(sentAuthorizations.get(1)).isNull();
+        assertThat(interceptor.getSavedRoundTripCount()).isZero();
+        thenAuthCacheShouldBeEmpty(authCache);
+    }
+
+    @Test
+    public void testUploadProbe__headRequest__shouldAuthenticateBeforeSendingBody() throws Exception {
+        // given
+        final Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        final String dummyUrl = "https://myhost.com/upload";
+        AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        interceptor.setUploadProbe(UploadProbe.HEAD_REQUEST, 1024);
+        final List<String> sent = new ArrayList<>();
+        Request request = new Request.Builder()
+                .url(dummyUrl)
+                .put(RequestBody.create(new byte[4096], MediaType.parse("application/octet-stream")))
+                .build();
+
+        // when
+        interceptor.intercept(new ChainAdapter(request, mockConnection) {
+            @Override
+            public Response proceed(Request request) throws IOException {
+                sent.add(request.method() + " " + request.header("Authorization"));
+                if ("HEAD".equals(request.method())) {
+                    // the client's authenticator answers the challenge and caches itself
+                    givenCachedAuthenticationFor(dummyUrl, authCache);
+                }
+                return null;
+            }
+        });
+
+        // then
+        assertThat(sent).containsExactly("HEAD null", "PUT Basic dXNlcjE6dXNlcjE=");
+    }
+
+    @Test
+    public void testUploadProbe__expectContinue__shouldOnlyApplyToLargeBodies() throws Exception {
+        // given
+        Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        interceptor.setUploadProbe(UploadProbe.EXPECT_CONTINUE, 1024);
+
+        // when
+        String large = whenInterceptExpectHeaderForBody(interceptor, new byte[1024]);
+        String small = whenInterceptExpectHeaderForBody(interceptor, new byte[1023]);
+
+        // then
+        assertThat(large).isEqualTo("100-continue");
+        assertThat(small).isNull();
+    }
+
+    @Test
+    public void testUploadProbe__withUnknownLength__shouldOnlyProbeWhenEnabled() throws Exception {
+        // given
+        Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        AuthenticationCacheInterceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        RequestBody streamed = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("application/octet-stream");
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.write(new byte[16]);
+            }
+        };
+
+        // when
+        interceptor.setUploadProbe(UploadProbe.EXPECT_CONTINUE, 1024);
+        String byDefault = whenInterceptExpectHeaderForBody(interceptor, streamed);
+        interceptor.setUploadProbe(UploadProbe.EXPECT_CONTINUE, 1024, true);
+        String enabled = whenInterceptExpectHeaderForBody(interceptor, streamed);
+
+        // then
+        assertThat(byDefault).isNull();
+        assertThat(enabled).isEqualTo("100-continue");
+    }
+
+    private String whenInterceptExpectHeaderForBody(Interceptor interceptor, byte[] body) throws IOException {
+        return whenInterceptExpectHeaderForBody(interceptor,
+                RequestBody.create(body, MediaType.parse("application/octet-stream")));
+    }
+
+    private String whenInterceptExpectHeaderForBody(Interceptor interceptor, RequestBody body) throws IOException {
+        final AtomicReference<String> expectHeader = new AtomicReference<>();
+        final Request request = new Request.Builder()
+                .url("https://myhost.com/upload")
+                .post(body)
+                .build();
+        interceptor.intercept(new ChainAdapter(request, mockConnection) {
+            @Override
+            public Response proceed(Request request) {
+                expectHeader.set(request.header("Expect"));
+                return null;
+            }
+        });
+        return expectHeader.get();
+    }
+
     private void whenServerReturns401(final String dummyUrl, Interceptor interceptor) throws IOException {
         Request request = new Request.Builder()
                 .url(dummyUrl)
@@ -149,6 +332,49 @@ public class AuthenticationCacheInterceptorTest {
         thenAuthorizationHeaderShouldBePresent(auth);
     }
 
+    @Test
+    public void testCaching__whenResponseAuthenticationFails__shouldCloseResponse() throws IOException {
+        // given
+        Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+        DigestAuthenticator digestAuthenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
+        digestAuthenticator.setVerifyResponseAuth(true);
+        Request challenged = new Request.Builder().url("https://myhost.com/path").get().build();
+        new CachingAuthenticatorDecorator(digestAuthenticator, authCache).authenticate(null, new Response.Builder()
+                .request(challenged)
+                .protocol(Protocol.HTTP_1_1)
+                .code(HTTP_UNAUTHORIZED)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", "Digest realm=\"myrealm\", nonce=\"AAAAAA\", qop=\"auth\"")
+                .build());
+        Interceptor interceptor = new AuthenticationCacheInterceptor(authCache);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Source source = new ForwardingSource(new Buffer().writeUtf8("OK")) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+
+        // when
+        assertThatThrownBy(() -> interceptor.intercept(new ChainAdapter(challenged, mockConnection) {
+            @Override
+            public Response proceed(Request request) {
+                return new Response.Builder()
+                        .body(ResponseBody.create(Okio.buffer(source), MediaType.parse("text/plain"), 2))
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .header("Authentication-Info", "rspauth=\"0123456789abcdef0123456789abcdef\"")
+                        .build();
+            }
+        })).isInstanceOf(IOException.class);
+
+        // then
+        assertThat(closed).isTrue();
+    }
+
     private void thenNoAuthorizationHeaderShouldBePresent(String authorization2) {
         assertThat(authorization2).isNull();
     }
@@ -0,0 +1,88 @@
+package com.burgstaller.okhttp;
+
+import com.burgstaller.okhttp.basic.BasicAuthenticator;
+import com.burgstaller.okhttp.digest.CachingAuthenticator;
+import com.burgstaller.okhttp.digest.Credentials;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuthenticationPrefetcherTest {
+
+    private final MockWebServer firstServer = new MockWebServer();
+    private final MockWebServer secondServer = new MockWebServer();
+    private final Map<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+    private CachingAuthenticatorDecorator decorator;
+    private OkHttpClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        firstServer.start();
+        secondServer.start();
+        decorator = new CachingAuthenticatorDecorator(new BasicAuthenticator(new Credentials("user1", "user1")),
+                authCache);
+        client = new OkHttpClient.Builder()
+                .authenticator(decorator)
+                .addInterceptor(new AuthenticationCacheInterceptor(authCache))
+                .build();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        firstServer.shutdown();
+        secondServer.shutdown();
+    }
+
+    @Test
+    public void testPrefetch__shouldPreauthenticateAllOrigins() throws Exception {
+        // given
+        for (MockWebServer server : Arrays.asList(firstServer, secondServer)) {
+            server.enqueue(new MockResponse()
+                    .setResponseCode(401)
+                    .addHeader("WWW-Authenticate", "Basic realm=\"myrealm\""));
+            server.enqueue(new MockResponse().setBody("OK"));
+        }
+        AuthenticationPrefetcher prefetcher = new AuthenticationPrefetcher(client, decorator, 1);
+
+        // when
+        prefetcher.prefetch(Arrays.asList(firstServer.url("/").toString(), secondServer.url("/").toString()))
+                .get(10, TimeUnit.SECONDS);
+
+        // then
+        assertThat(prefetcher.getAuthenticatedCount()).isEqualTo(2);
+        assertThat(prefetcher.getFailedCount()).isZero();
+        assertThat(authCache).hasSize(2);
+        try (Response response = client.newCall(new Request.Builder().url(firstServer.url("/a")).build()).execute()) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+        RecordedRequest probe = firstServer.takeRequest();
+        RecordedRequest actual = firstServer.takeRequest();
+        assertThat(probe.getMethod()).isEqualTo("HEAD");
+        assertThat(probe.getHeader("Authorization")).isNull();
+        assertThat(actual.getHeader("Authorization")).isEqualTo("Basic dXNlcjE6dXNlcjE=");
+        assertThat(firstServer.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPrefetch__withoutUrls__shouldCompleteImmediately() {
+        // given
+        AuthenticationPrefetcher prefetcher = new AuthenticationPrefetcher(client, decorator, 4);
+
+        // when / then
+        assertThat(prefetcher.prefetch(Arrays.<String>asList())).isCompleted();
+    }
+}
@@ -0,0 +1,47 @@
+package com.burgstaller.okhttp;
+
+import okhttp3.Request;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CacheKeyProviderTest {
+
+    @Test
+    public void testRequestKey__sameOrigin__shouldReturnSameInstance() {
+        // given
+        DefaultRequestCacheKeyProvider provider = new DefaultRequestCacheKeyProvider();
+
+        // when
+        String first = provider.getCachingKey(new Request.Builder().url("https://myhost.com/a").build());
+        String second = provider.getCachingKey(new Request.Builder().url("https://myhost.com/b?c=d").build());
+        String otherPort = provider.getCachingKey(new Request.Builder().url("https://myhost.com:8443/").build());
+        String otherScheme = provider.getCachingKey(new Request.Builder().url("http://myhost.com/").build());
+
+        // then
+        assertThat(first).isEqualTo("https:myhost.com:443");
+        assertThat(second).isSameAs(first);
+        assertThat(otherPort).isEqualTo("https:myhost.com:8443");
+        assertThat(otherScheme).isEqualTo("http:myhost.com:80");
+    }
+
+    @Test
+    public void testProxyKey__equalProxies__shouldReturnSameInstance() {
+        // given
+        DefaultProxyCacheKeyProvider provider = new DefaultProxyCacheKeyProvider();
+        Proxy proxy = new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", 3128));
+
+        // when
+        String first = provider.getCachingKey(proxy);
+        String second = provider.getCachingKey(
+                new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", 3128)));
+
+        // then
+        assertThat(first).isEqualTo(proxy.toString());
+        assertThat(second).isSameAs(first);
+        assertThat(provider.getCachingKey(null)).isNull();
+    }
+}
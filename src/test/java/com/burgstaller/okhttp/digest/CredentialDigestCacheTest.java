@@ -0,0 +1,75 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CredentialDigestCacheTest {
+
+    private Credentials credentials;
+    private CredentialDigestCache cache;
+
+    @BeforeEach
+    public void beforeMethod() {
+        credentials = new Credentials("user1", "user1");
+        cache = new CredentialDigestCache(credentials, 2);
+    }
+
+    @Test
+    public void testGet__afterPut__shouldReturnCachedHash() {
+        cache.put(credentials.getGeneration(), "user1", "myrealm", "MD5", "UTF-8", "abcdef");
+
+        assertThat(cache.get("user1", "myrealm", "MD5", "UTF-8")).isEqualTo("abcdef");
+        assertThat(cache.get("user1", "otherrealm", "MD5", "UTF-8")).isNull();
+        assertThat(cache.get("user1", "myrealm", "MD5", "ISO-8859-1")).isNull();
+    }
+
+    @Test
+    public void testGet__whenPasswordChanged__shouldInvalidateCache() {
+        // given
+        cache.put(credentials.getGeneration(), "user1", "myrealm", "MD5", "UTF-8", "abcdef");
+
+        // when
+        credentials.setPassword("newPassword");
+
+        // then
+        assertThat(cache.get("user1", "myrealm", "MD5", "UTF-8")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void testGet__whenPasswordSetToSameValue__shouldKeepCache() {
+        // given
+        cache.put(credentials.getGeneration(), "user1", "myrealm", "MD5", "UTF-8", "abcdef");
+
+        // when
+        credentials.setPassword("user1");
+
+        // then
+        assertThat(cache.get("user1", "myrealm", "MD5", "UTF-8")).isEqualTo("abcdef");
+    }
+
+    @Test
+    public void testPut__whenComputedForOutdatedCredentials__shouldBeIgnored() {
+        // given
+        int generation = credentials.getGeneration();
+        credentials.setUserName("user2");
+
+        // when
+        cache.put(generation, "user1", "myrealm", "MD5", "UTF-8", "abcdef");
+
+        // then
+        assertThat(cache.get("user1", "myrealm", "MD5", "UTF-8")).isNull();
+    }
+
+    @Test
+    public void testPut__whenFull__shouldStayBounded() {
+        cache.put(credentials.getGeneration(), "user1", "realm1", "MD5", "UTF-8", "1");
+        cache.put(credentials.getGeneration(), "user1", "realm2", "MD5", "UTF-8", "2");
+        cache.put(credentials.getGeneration(), "user1", "realm3", "MD5", "UTF-8", "3");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("user1", "realm3", "MD5", "UTF-8")).isEqualTo("3");
+    }
+}
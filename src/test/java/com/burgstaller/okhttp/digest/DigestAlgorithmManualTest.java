@@ -0,0 +1,82 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Measures the cost of the digest algorithms of RFC 7616, both for the short inputs of a
+ * digest-response and for hashing a 1 MiB entity body ({@code qop=auth-int}). The results depend
+ * heavily on the JVM and CPU (e.g. SHA extensions), run this on the target hardware to pick the
+ * cheapest algorithm the servers accept.
+ */
+@Disabled
+public class DigestAlgorithmManualTest {
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final int BODY_ITERATIONS = 200;
+    private static final byte[] HEADER_INPUT = ("939e7578ed9e3c518a452acee763bce9:dcd98b7102dd2f0e8b11d0f600bfb0c093:"
+            + "00000001:0a4f113b:auth:39aff3a2bab6126f332b942af96d3366").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BODY = new byte[1024 * 1024];
+
+    private long sink;
+
+    @Test
+    public void testMd5() {
+        benchmark("MD5");
+    }
+
+    @Test
+    public void testMd5Sess() {
+        benchmark("MD5-sess");
+    }
+
+    @Test
+    public void testSha256() {
+        benchmark("SHA-256");
+    }
+
+    @Test
+    public void testSha256Sess() {
+        benchmark("SHA-256-sess");
+    }
+
+    @Test
+    public void testSha512256() {
+        benchmark("SHA-512-256");
+    }
+
+    @Test
+    public void testSha512256Sess() {
+        benchmark("SHA-512-256-sess");
+    }
+
+    private void benchmark(String token) {
+        final DigestAlgorithm algorithm = DigestAlgorithm.forToken(token);
+        final MessageDigest digester = MessageDigestPool.getDefault().acquire(algorithm);
+        // the -sess variants hash H(A1) once more per request
+        final int hashesPerResponse = algorithm.isSession() ? 3 : 2;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += digester.digest(HEADER_INPUT)[0];
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (int j = 0; j < hashesPerResponse; j++) {
+                sink += digester.digest(HEADER_INPUT)[0];
+            }
+        }
+        final long responseNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BODY_ITERATIONS; i++) {
+            sink += digester.digest(BODY)[0];
+        }
+        final long bodyMicros = (System.nanoTime() - start) / BODY_ITERATIONS / 1000;
+        MessageDigestPool.getDefault().release(algorithm, digester);
+
+        System.out.println(token + ": " + responseNanos + " ns/response, " + bodyMicros + " us/MiB body"
+                + " (ignore) " + sink);
+    }
+}
@@ -0,0 +1,95 @@
+package com.burgstaller.okhttp.digest;
+
+import com.burgstaller.okhttp.digest.fromhttpclient.UnsupportedDigestAlgorithmException;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DigestAlgorithmTest {
+
+    @Test
+    public void testForToken__withSessionVariant__shouldUseBaseHash() {
+        // when
+        DigestAlgorithm md5Sess = DigestAlgorithm.forToken("MD5-sess");
+        DigestAlgorithm sha256Sess = DigestAlgorithm.forToken("sha-256-SESS");
+
+        // then
+        assertThat(md5Sess.getHashName()).isEqualTo("MD5");
+        assertThat(md5Sess.isSession()).isTrue();
+        assertThat(md5Sess.getToken()).isEqualTo("MD5-sess");
+        assertThat(sha256Sess.getHashName()).isEqualTo("SHA-256");
+        assertThat(sha256Sess.isSession()).isTrue();
+    }
+
+    @Test
+    public void testForToken__withSha512256__shouldMapToJcaName() {
+        // when
+        DigestAlgorithm algorithm = DigestAlgorithm.forToken("SHA-512-256");
+
+        // then
+        assertThat(algorithm.getHashName()).isEqualTo("SHA-512/256");
+        assertThat(algorithm.isSession()).isFalse();
+    }
+
+    @Test
+    public void testForToken__shouldCacheResolution() {
+        assertThat(DigestAlgorithm.forToken("SHA-256")).isSameAs(DigestAlgorithm.forToken("SHA-256"));
+    }
+
+    @Test
+    public void testForToken__withUnregisteredToken__shouldPassTokenToJca() {
+        // when
+        DigestAlgorithm algorithm = DigestAlgorithm.forToken("SHA-384-sess");
+
+        // then
+        assertThat(algorithm.getHashName()).isEqualTo("SHA-384");
+        assertThat(algorithm.newEngine().getAlgorithm()).isEqualTo("SHA-384");
+    }
+
+    @Test
+    public void testNewEngine__withUnknownHash__shouldThrowException() {
+        assertThrows(UnsupportedDigestAlgorithmException.class,
+                () -> DigestAlgorithm.forToken("XYZ-512").newEngine());
+    }
+
+    @Test
+    public void testRegister__shouldUseFactory() {
+        // given
+        DigestAlgorithm.register("TEST-HASH", "SHA-1", () -> MessageDigest.getInstance("SHA-1"));
+        try {
+            // when
+            DigestAlgorithm algorithm = DigestAlgorithm.forToken("test-hash-sess");
+
+            // then
+            assertThat(algorithm.isSession()).isTrue();
+            assertThat(algorithm.newEngine().getAlgorithm()).isEqualTo("SHA-1");
+        } finally {
+            DigestAlgorithm.unregister("TEST-HASH");
+        }
+    }
+
+    @Test
+    public void testUnregister__shouldPassTokenToJcaAgain() {
+        // given
+        DigestAlgorithm.register("TEST-HASH", "SHA-1", () -> MessageDigest.getInstance("SHA-1"));
+        DigestAlgorithm.forToken("TEST-HASH");
+
+        // when
+        DigestAlgorithm.unregister("TEST-HASH");
+
+        // then
+        assertThat(DigestAlgorithm.forToken("TEST-HASH").getHashName()).isEqualTo("TEST-HASH");
+    }
+
+    @Test
+    public void testRegister__withBuiltInOrSessionToken__shouldThrowException() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DigestAlgorithm.register("sha-256", "SHA-1", () -> MessageDigest.getInstance("SHA-1")));
+        assertThrows(IllegalArgumentException.class, () -> DigestAlgorithm.register("MD5-sess", "SHA-1", null));
+
+        assertThat(DigestAlgorithm.forToken("SHA-256").getHashName()).isEqualTo("SHA-256");
+    }
+}
@@ -0,0 +1,77 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.Request;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.burgstaller.okhttp.digest.DigestResponses.cnonceOf;
+import static com.burgstaller.okhttp.digest.DigestResponses.hex;
+import static com.burgstaller.okhttp.digest.DigestResponses.unauthorized;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestAuthenticatorAlgorithmTest {
+
+    private Request request;
+    private DigestAuthenticator authenticator;
+
+    @BeforeEach
+    public void beforeMethod() {
+        request = new Request.Builder().url("http://www.google.com/").get().build();
+        authenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
+    }
+
+    @Test
+    public void testAuthenticate__withSha512256Sess__shouldUseSha512256() throws Exception {
+        // given
+        String challenge = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=SHA-512-256-sess, qop=\"auth\"";
+
+        // when
+        Request authenticated = authenticator.authenticate(null, unauthorized(request, challenge));
+
+        // then
+        String cnonce = cnonceOf(authenticated);
+        String hasha1 = hex("SHA-512/256", hex("SHA-512/256", "user1:myrealm:user1") + ":AAAAAA:" + cnonce);
+        String hasha2 = hex("SHA-512/256", "GET:/");
+        String expected = hex("SHA-512/256", hasha1 + ":AAAAAA:00000001:" + cnonce + ":auth:" + hasha2);
+        assertThat(authenticated.header("Authorization"))
+                .contains("response=\"" + expected + "\"")
+                .contains("algorithm=SHA-512-256-sess");
+    }
+
+    @Test
+    public void testAuthenticate__withSha256__shouldUseSha256() throws Exception {
+        // given
+        String challenge = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=SHA-256, qop=\"auth\"";
+
+        // when
+        Request authenticated = authenticator.authenticate(null, unauthorized(request, challenge));
+
+        // then
+        String hasha1 = hex("SHA-256", "user1:myrealm:user1");
+        String hasha2 = hex("SHA-256", "GET:/");
+        String expected = hex("SHA-256", hasha1 + ":AAAAAA:00000001:" + cnonceOf(authenticated) + ":auth:" + hasha2);
+        assertThat(authenticated.header("Authorization"))
+                .contains("response=\"" + expected + "\"")
+                .contains("algorithm=SHA-256");
+    }
+
+    @Test
+    public void testAuthenticate__withUserhash__shouldSendHashedUsername() throws Exception {
+        // given
+        Credentials credentials = new Credentials("user1", "user1");
+        DigestAuthenticator renamingAuthenticator = new DigestAuthenticator(credentials);
+        String challenge = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=SHA-256, qop=\"auth\", userhash=true";
+
+        // when
+        Request authenticated = renamingAuthenticator.authenticate(null, unauthorized(request, challenge));
+        credentials.setUserName("user2");
+        Request renamed = renamingAuthenticator.authenticateWithState(null, request);
+
+        // then
+        assertThat(authenticated.header("Authorization"))
+                .startsWith("Digest username=\"" + hex("SHA-256", "user1:myrealm") + "\"")
+                .endsWith(", userhash=true");
+        assertThat(renamed.header("Authorization"))
+                .startsWith("Digest username=\"" + hex("SHA-256", "user2:myrealm") + "\"");
+    }
+}
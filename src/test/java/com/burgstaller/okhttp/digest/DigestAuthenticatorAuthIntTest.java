@@ -0,0 +1,146 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.burgstaller.okhttp.digest.DigestResponses.cnonceOf;
+import static com.burgstaller.okhttp.digest.DigestResponses.md5Hex;
+import static com.burgstaller.okhttp.digest.DigestResponses.unauthorized;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestAuthenticatorAuthIntTest {
+
+    private static final String AUTH_INT_CHALLENGE =
+            "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=MD5, qop=\"auth-int\"";
+
+    private DigestAuthenticator authenticator;
+
+    @BeforeEach
+    public void beforeMethod() {
+        authenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
+    }
+
+    @Test
+    public void testAuthenticate__withAuthIntAndBody__shouldDigestBody() throws Exception {
+        // given
+        Request request = new Request.Builder()
+                .url("http://www.google.com/upload")
+                .post(RequestBody.create("firmware", MediaType.get("application/octet-stream")))
+                .build();
+
+        // when
+        Request authenticated = authenticator.authenticate(null, unauthorized(request, AUTH_INT_CHALLENGE));
+
+        // then
+        String hasha1 = md5Hex("user1:myrealm:user1");
+        String hasha2 = md5Hex("POST:/upload:" + md5Hex("firmware"));
+        String expected = md5Hex(hasha1 + ":AAAAAA:00000001:" + cnonceOf(authenticated) + ":auth-int:" + hasha2);
+        assertThat(authenticated.header("Authorization"))
+                .contains("response=\"" + expected + "\"")
+                .contains("qop=auth-int");
+    }
+
+    @Test
+    public void testAuthenticate__withRewrittenFile__shouldDigestNewContent(@TempDir Path directory)
+            throws Exception {
+        // given
+        File file = directory.resolve("firmware.bin").toFile();
+        Files.write(file.toPath(), "firmware".getBytes(StandardCharsets.US_ASCII));
+        long lastModified = file.lastModified();
+        authenticator.authenticate(null, unauthorized(new Request.Builder()
+                .url("http://www.google.com/upload")
+                .post(new FileRequestBody(file, MediaType.get("application/octet-stream")))
+                .build(), AUTH_INT_CHALLENGE));
+        // same size and modification time
+        Files.write(file.toPath(), "hardware".getBytes(StandardCharsets.US_ASCII));
+        file.setLastModified(lastModified);
+        Request request = new Request.Builder()
+                .url("http://www.google.com/upload")
+                .post(new FileRequestBody(file, MediaType.get("application/octet-stream")))
+                .build();
+
+        // when
+        Request authenticated = authenticator.authenticateWithState(null, request);
+
+        // then
+        String hasha1 = md5Hex("user1:myrealm:user1");
+        String hasha2 = md5Hex("POST:/upload:" + md5Hex("hardware"));
+        String expected = md5Hex(hasha1 + ":AAAAAA:00000002:" + cnonceOf(authenticated) + ":auth-int:" + hasha2);
+        assertThat(authenticated.header("Authorization")).contains("response=\"" + expected + "\"");
+    }
+
+    @Test
+    public void testPrefetchEntityDigest__shouldHashBodyOnlyOnce() throws Exception {
+        // given
+        authenticator.authenticate(null, unauthorized(new Request.Builder()
+                .url("http://www.google.com/upload")
+                .post(RequestBody.create("bootloader", MediaType.get("application/octet-stream")))
+                .build(), AUTH_INT_CHALLENGE));
+        CountingRequestBody body = new CountingRequestBody("firmware");
+        Request request = new Request.Builder().url("http://www.google.com/upload").post(body).build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // when
+        authenticator.prefetchEntityDigest(null, request, executor);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        Request authenticated = authenticator.authenticateWithState(null, request);
+
+        // then
+        String hasha1 = md5Hex("user1:myrealm:user1");
+        String hasha2 = md5Hex("POST:/upload:" + md5Hex("firmware"));
+        String expected = md5Hex(hasha1 + ":AAAAAA:00000002:" + cnonceOf(authenticated) + ":auth-int:" + hasha2);
+        assertThat(authenticated.header("Authorization")).contains("response=\"" + expected + "\"");
+        assertThat(body.writes.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPrefetchEntityDigest__withoutSession__shouldNotHash() {
+        // given
+        CountingRequestBody body = new CountingRequestBody("firmware");
+        Request request = new Request.Builder().url("http://www.google.com/upload").post(body).build();
+        AtomicInteger executions = new AtomicInteger();
+
+        // when
+        authenticator.prefetchEntityDigest(null, request, command -> executions.incrementAndGet());
+
+        // then
+        assertThat(executions.get()).isZero();
+        assertThat(body.writes.get()).isZero();
+    }
+
+    private static final class CountingRequestBody extends RequestBody {
+        private final AtomicInteger writes = new AtomicInteger();
+        private final String content;
+
+        CountingRequestBody(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MediaType.get("application/octet-stream");
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            writes.incrementAndGet();
+            sink.writeUtf8(content);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static com.burgstaller.okhttp.digest.DigestResponses.authenticationInfo;
+import static com.burgstaller.okhttp.digest.DigestResponses.cnonceOf;
+import static com.burgstaller.okhttp.digest.DigestResponses.md5Hex;
+import static com.burgstaller.okhttp.digest.DigestResponses.stale;
+import static com.burgstaller.okhttp.digest.DigestResponses.unauthorized;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DigestAuthenticatorSessionTest {
+
+    private DigestAuthenticator authenticator;
+
+    @BeforeEach
+    public void beforeMethod() {
+        authenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
+    }
+
+    @Test
+    public void testAuthenticateWithState__withMultipleHosts__shouldKeepSeparateSessions() throws Exception {
+        // given
+        authenticator.authenticate(null, unauthorized("http://host-a.com", "realm-a", "AAAAAA"));
+        authenticator.authenticate(null, unauthorized("http://host-b.com", "realm-b", "BBBBBB"));
+
+        // when
+        Request requestA = authenticator.authenticateWithState(null,
+                new Request.Builder().url("http://host-a.com/account").get().build());
+        Request requestB = authenticator.authenticateWithState(null,
+                new Request.Builder().url("http://host-b.com/account").get().build());
+        Request requestC = authenticator.authenticateWithState(null,
+                new Request.Builder().url("http://host-c.com/account").get().build());
+
+        // then
+        assertThat(requestA.header("Authorization"))
+                .contains("realm=\"realm-a\", nonce=\"AAAAAA\"")
+                .contains("nc=00000002");
+        assertThat(requestB.header("Authorization"))
+                .contains("realm=\"realm-b\", nonce=\"BBBBBB\"")
+                .contains("nc=00000002");
+        assertThat(requestC).isNull();
+    }
+
+    @Test
+    public void testAuthenticateWithState__withSamePortDifferentScheme__shouldKeepSeparateSessions() throws Exception {
+        // given
+        authenticator.authenticate(null, unauthorized("http://host-a.com:8080", "realm-a", "AAAAAA"));
+
+        // when
+        Request plain = authenticator.authenticateWithState(null,
+                new Request.Builder().url("http://host-a.com:8080/account").get().build());
+        Request secure = authenticator.authenticateWithState(null,
+                new Request.Builder().url("https://host-a.com:8080/account").get().build());
+
+        // then
+        assertThat(plain.header("Authorization")).contains("nonce=\"AAAAAA\"");
+        assertThat(secure).isNull();
+    }
+
+    @Test
+    public void testAuthenticate__withConcurrentStaleChallenges__shouldShareNewSession() throws Exception {
+        // given
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+
+        // when
+        Request firstRetry = authenticator.authenticate(null, stale("AAAAAA", "BBBBBB"));
+        Request secondRetry = authenticator.authenticate(null, stale("AAAAAA", "CCCCCC"));
+
+        // then
+        assertThat(firstRetry.header("Authorization")).contains("nonce=\"BBBBBB\"").contains("nc=00000001");
+        assertThat(secondRetry.header("Authorization")).contains("nonce=\"BBBBBB\"").contains("nc=00000002");
+        assertThat(authenticator.getCoalescedChallengeCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAuthenticate__withSingleFlightDisabled__shouldUseLatestChallenge() throws Exception {
+        // given
+        authenticator.setSingleFlightChallenges(false);
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        authenticator.authenticate(null, stale("AAAAAA", "BBBBBB"));
+
+        // when
+        Request secondRetry = authenticator.authenticate(null, stale("AAAAAA", "CCCCCC"));
+
+        // then
+        assertThat(secondRetry.header("Authorization")).contains("nonce=\"CCCCCC\"").contains("nc=00000001");
+        assertThat(authenticator.getCoalescedChallengeCount()).isZero();
+    }
+
+    @Test
+    public void testProcessAuthenticationInfo__withNextNonce__shouldUseNextNonce() throws Exception {
+        // given
+        Request authenticated = authenticator.authenticate(null,
+                unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        Response response = authenticationInfo(authenticated, "nextnonce=\"BBBBBB\"");
+
+        // when
+        authenticator.processAuthenticationInfo(null, response);
+        Request next = authenticator.authenticateWithState(null,
+                new Request.Builder().url("http://www.google.com/next").get().build());
+
+        // then
+        assertThat(next.header("Authorization")).contains("nonce=\"BBBBBB\"").contains("nc=00000001");
+        assertThat(authenticator.getNonceRotationCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testProcessAuthenticationInfo__withValidRspauth__shouldAccept() throws Exception {
+        // given
+        authenticator.setVerifyResponseAuth(true);
+        Request authenticated = authenticator.authenticate(null,
+                unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        String hasha1 = md5Hex("user1:myrealm:user1");
+        String hasha2 = md5Hex(":/");
+        String rspauth = md5Hex(hasha1 + ":AAAAAA:00000001:" + cnonceOf(authenticated) + ":auth:" + hasha2);
+        Response response = authenticationInfo(authenticated, "rspauth=\"" + rspauth + "\", nextnonce=\"BBBBBB\"");
+
+        // when
+        authenticator.processAuthenticationInfo(null, response);
+
+        // then
+        assertThat(authenticator.getNonceRotationCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testProcessAuthenticationInfo__withWrongRspauth__shouldThrowException() throws Exception {
+        // given
+        authenticator.setVerifyResponseAuth(true);
+        Request authenticated = authenticator.authenticate(null,
+                unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        Response response = authenticationInfo(authenticated, "rspauth=\"0123456789abcdef0123456789abcdef\"");
+
+        // when / then
+        assertThatThrownBy(() -> authenticator.processAuthenticationInfo(null, response))
+                .isInstanceOf(IOException.class);
+        assertThat(authenticator.getNonceRotationCount()).isZero();
+    }
+
+    @Test
+    public void testIsRefreshDue__withNoncesExpiringAfterSameCount__shouldRefreshBeforeLimit() throws Exception {
+        // given: the server expires its nonces with the third request
+        Request request = new Request.Builder().url("http://www.google.com").get().build();
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticate(null, stale("AAAAAA", "BBBBBB"));
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticate(null, stale("BBBBBB", "CCCCCC"));
+
+        // when
+        boolean dueAfterFirstRequest = authenticator.isRefreshDue(null, request);
+        authenticator.authenticateWithState(null, request);
+        boolean dueAfterSecondRequest = authenticator.isRefreshDue(null, request);
+
+        // then
+        assertThat(dueAfterFirstRequest).isFalse();
+        assertThat(dueAfterSecondRequest).isTrue();
+        assertThat(authenticator.getNonceLifetimeMillis(null, request)).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void testIsRefreshDue__whenRefreshDoesNotRotateNonce__shouldNotRefreshAgain() throws Exception {
+        // given: the server expires its nonces with the second request
+        Request request = new Request.Builder().url("http://www.google.com").get().build();
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticate(null, stale("AAAAAA", "BBBBBB"));
+        authenticator.authenticateWithState(null, request);
+        authenticator.authenticate(null, stale("BBBBBB", "CCCCCC"));
+        authenticator.authenticateWithState(null, request);
+        boolean due = authenticator.isRefreshDue(null, request);
+
+        // when: the refresh is answered with the current nonce
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "CCCCCC"));
+
+        // then
+        assertThat(due).isTrue();
+        assertThat(authenticator.isRefreshDue(null, request)).isFalse();
+    }
+
+    @Test
+    public void testIsRefreshDue__withNonceExpiringRightAway__shouldNotRefreshEveryRequest() throws Exception {
+        // given
+        Request request = new Request.Builder().url("http://www.google.com").get().build();
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+        authenticator.authenticate(null, stale("AAAAAA", "BBBBBB"));
+
+        // then
+        assertThat(authenticator.getNonceLifetimeMillis(null, request))
+                .isGreaterThanOrEqualTo(NonceLifetime.MIN_LIFETIME_MILLIS);
+        assertThat(authenticator.isRefreshDue(null, request)).isFalse();
+    }
+
+    @Test
+    public void testIsRefreshDue__withoutExpiredNonces__shouldNotRefresh() throws Exception {
+        // given
+        Request request = new Request.Builder().url("http://www.google.com").get().build();
+        authenticator.authenticate(null, unauthorized("http://www.google.com", "myrealm", "AAAAAA"));
+
+        // then
+        assertThat(authenticator.isRefreshDue(null, request)).isFalse();
+        assertThat(authenticator.getNonceLifetimeMillis(null, request)).isEqualTo(-1);
+    }
+}
@@ -10,8 +10,8 @@ import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
 import org.jetbrains.annotations.NotNull;
-import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
@@ -22,20 +22,26 @@ import java.net.Proxy;
 import java.net.ProxySelector;
 import java.nio.charset.Charset;
 import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.net.HttpURLConnection.HTTP_PROXY_AUTH;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.junit.Assert.assertNull;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 
 public class DigestAuthenticatorTest {
 
+    private static final Pattern NONCE_COUNT_PATTERN = Pattern.compile("nc=([0-9a-f]{8})");
+
     private Route mockRoute;
     private DigestAuthenticator authenticator;
 
@@ -229,7 +235,7 @@ public class DigestAuthenticatorTest {
         assertThat(authenticated).isNull();
     }
 
-    @Test(expected = IOException.class)
+    @Test
     public void testWWWAuthenticate__withInvalidWWWAuthHeader__shouldThrowException() throws Exception {
         Request dummyRequest = new Request.Builder()
                 .url("http://www.google.com")
@@ -243,12 +249,8 @@ public class DigestAuthenticatorTest {
                 .header("WWW-Authenticate",
                         "Digest realm=\"myrealm\", algorithm=MD5, qop=\"auth\"")
                 .build();
-        try {
-            authenticator.authenticate(null, response);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
-        }
+        assertThatThrownBy(() -> authenticator.authenticate(null, response))
+                .isInstanceOf(IOException.class);
     }
 
     @Test
@@ -431,7 +433,6 @@ public class DigestAuthenticatorTest {
                         "uri=\"/\", response=\"[0-9a-f]+\", qop=auth, nc=000000\\d\\d, cnonce=\"[0-9a-f]+\", algorithm=MD5");
     }
 
-
     @Test
     public void testProxyAuthenticate_withDifferentNonce_shouldNotRetry() throws IOException {
         // given
@@ -528,9 +529,50 @@ public class DigestAuthenticatorTest {
         CachingAuthenticator localAuthenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
 
         Request authenticatedRequest = localAuthenticator.authenticateWithState(mockRoute, secondRequest);
-        assertNull(authenticatedRequest);
+        assertThat(authenticatedRequest).isNull();
     }
 
+    @Test
+    public void testAuthenticateWithState__whenCalledConcurrently__shouldUseUniqueNonceCounts() throws Exception {
+        // given
+        Request dummyRequest = new Request.Builder()
+                .url("http://www.google.com")
+                .get()
+                .build();
+        Response response = new Response.Builder()
+                .request(dummyRequest)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .header("WWW-Authenticate",
+                        "Digest realm=\"myrealm\", nonce=\"BBBBBB\", algorithm=MD5, qop=\"auth\"")
+                .build();
+        authenticator.authenticate(mockRoute, response);
+
+        // when
+        final Set<String> nonceCounts = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 200; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Request authenticated = authenticator.authenticateWithState(mockRoute, dummyRequest);
+                        Matcher matcher = NONCE_COUNT_PATTERN.matcher(authenticated.header("Authorization"));
+                        if (matcher.find()) {
+                            nonceCounts.add(matcher.group(1));
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // then
+        assertThat(nonceCounts).hasSize(200).doesNotContain("00000001");
+    }
 
     @Test
     public void testMultithreadedWWWAuthenticate() throws Exception {
@@ -0,0 +1,71 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestChallengeCacheTest {
+
+    private static final String HEADER = "Digest realm=\"myrealm\", nonce=\"BBBBBB\", qop=\"auth\"";
+
+    @Test
+    public void testGet__sameHeader__shouldOnlyParseOnce() {
+        // given
+        DigestChallengeCache cache = new DigestChallengeCache(16);
+
+        // when
+        DigestChallenge first = cache.get(HEADER, false);
+        DigestChallenge second = cache.get(new String(HEADER), false);
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(first.getNonce()).isEqualTo("BBBBBB");
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void testGet__differentConnectFlag__shouldParseAgain() {
+        // given
+        DigestChallengeCache cache = new DigestChallengeCache(16);
+        cache.get(HEADER, false);
+
+        // when
+        DigestChallenge challenge = cache.get(HEADER, true);
+
+        // then
+        assertThat(challenge.isConnect()).isTrue();
+        assertThat(cache.getMissCount()).isEqualTo(2);
+        assertThat(cache.getHitCount()).isZero();
+    }
+
+    @Test
+    public void testGet__whenFull__shouldStayBounded() {
+        // given
+        DigestChallengeCache cache = new DigestChallengeCache(4);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            cache.get("Digest realm=\"myrealm\", nonce=\"" + i + "\"", false);
+        }
+
+        // then
+        assertThat(cache.size()).isEqualTo(4);
+        assertThat(cache.getMissCount()).isEqualTo(100);
+    }
+
+    @Test
+    public void testGet__withZeroSize__shouldNotCache() {
+        // given
+        DigestChallengeCache cache = new DigestChallengeCache(0);
+
+        // when
+        cache.get(HEADER, false);
+        cache.get(HEADER, false);
+
+        // then
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,77 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestChallengeParserTest {
+
+    @Test
+    public void testParse__shouldParseAllKnownParameters() {
+        // given
+        String header = "Digest realm=\"myrealm\", nonce=\"AAAAAA\",algorithm=SHA-256, qop=\"auth,auth-int\", "
+                + "opaque=\"op\", charset=UTF-8, stale=TRUE, userhash=\"true\"";
+
+        // when
+        DigestChallenge challenge = DigestChallengeParser.parse(header, 6, false);
+
+        // then
+        assertThat(challenge.getRealm()).isEqualTo("myrealm");
+        assertThat(challenge.getNonce()).isEqualTo("AAAAAA");
+        assertThat(challenge.getAlgorithm()).isEqualTo("SHA-256");
+        assertThat(challenge.getQopOptions()).containsExactly("auth", "auth-int");
+        assertThat(challenge.getOpaque()).isEqualTo("op");
+        assertThat(challenge.getCharset()).isEqualTo("UTF-8");
+        assertThat(challenge.isStale()).isTrue();
+        assertThat(challenge.isUserhash()).isTrue();
+        assertThat(challenge.isConnect()).isFalse();
+    }
+
+    @Test
+    public void testParse__withEscapedQuotes__shouldUnescape() {
+        // given
+        String header = "Digest realm=\"my \\\"quoted\\\" realm\\\\\", nonce=\"AAAAAA\"";
+
+        // when
+        DigestChallenge challenge = DigestChallengeParser.parse(header, 6, false);
+
+        // then
+        assertThat(challenge.getRealm()).isEqualTo("my \"quoted\" realm\\");
+        assertThat(challenge.getNonce()).isEqualTo("AAAAAA");
+    }
+
+    @Test
+    public void testParse__withUnknownParametersAndOddSpacing__shouldSkipThem() {
+        // given
+        String header = "Digest domain=\"/a, /b\",  Realm = \"myrealm\" ,novalue, NONCE=AAAAAA";
+
+        // when
+        DigestChallenge challenge = DigestChallengeParser.parse(header, 6, true);
+
+        // then
+        assertThat(challenge.getRealm()).isEqualTo("myrealm");
+        assertThat(challenge.getNonce()).isEqualTo("AAAAAA");
+        assertThat(challenge.getAlgorithm()).isEqualTo("MD5");
+        assertThat(challenge.isConnect()).isTrue();
+    }
+
+    @Test
+    public void testParse__withoutParameters__shouldReturnEmptyChallenge() {
+        // when
+        DigestChallenge challenge = DigestChallengeParser.parse("Digest", 6, false);
+
+        // then
+        assertThat(challenge.getRealm()).isNull();
+        assertThat(challenge.getNonce()).isNull();
+    }
+
+    @Test
+    public void testParseAlgorithm__shouldSkipQuotedValues() {
+        // given
+        String header = "Digest realm=\"a, algorithm=SHA-256\", nonce=\"AAAAAA\", Algorithm=\"SHA-512-256\"";
+
+        // then
+        assertThat(DigestChallengeParser.parseAlgorithm(header, 6)).isEqualTo("SHA-512-256");
+        assertThat(DigestChallengeParser.parseAlgorithm("Digest realm=\"r\", nonce=\"A\"", 6)).isNull();
+    }
+}
@@ -0,0 +1,98 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestChallengeSelectorTest {
+    private static final String SHA_256 = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=SHA-256, qop=\"auth\"";
+    private static final String MD5 = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=MD5, qop=\"auth\"";
+    private static final String SHA_512_256 = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=\"SHA-512-256\"";
+
+    @Test
+    public void testSelect__withServerOrder__shouldChooseFirst() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+
+        // then
+        assertThat(selector.select("host", Arrays.asList(MD5, SHA_256))).isSameAs(MD5);
+    }
+
+    @Test
+    public void testSelect__withStrongestFirst__shouldChooseStrongest() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+        selector.setPreference(DigestAlgorithmPreference.STRONGEST_FIRST);
+
+        // then
+        assertThat(selector.select("host", Arrays.asList(MD5, SHA_256))).isSameAs(SHA_256);
+    }
+
+    @Test
+    public void testSelect__withFastestFirst__shouldChooseMd5() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+        selector.setPreference(DigestAlgorithmPreference.FASTEST_FIRST);
+
+        // then
+        assertThat(selector.select("host", Arrays.asList(SHA_512_256, SHA_256, MD5))).isSameAs(MD5);
+    }
+
+    @Test
+    public void testSelect__withUnavailableAlgorithm__shouldSkipIt() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+        selector.setPreference(DigestAlgorithmPreference.STRONGEST_FIRST);
+        String unknown = "Digest realm=\"myrealm\", nonce=\"AAAAAA\", algorithm=XYZ-1024";
+
+        // then
+        assertThat(selector.select("host", Arrays.asList(unknown, MD5))).isSameAs(MD5);
+    }
+
+    @Test
+    public void testSelect__withSameAlgorithmsAgain__shouldReuseChoice() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+        selector.setPreference(DigestAlgorithmPreference.STRONGEST_FIRST);
+        selector.select("host", Arrays.asList(MD5, SHA_256));
+        List<String> renewed = Arrays.asList(MD5.replace("AAAAAA", "BBBBBB"), SHA_256.replace("AAAAAA", "BBBBBB"));
+
+        // when
+        String selected = selector.select("host", renewed);
+
+        // then
+        assertThat(selected).isSameAs(renewed.get(1));
+        assertThat(selector.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSelect__withSameChallengesAgain__shouldReturnPreviousChoice() {
+        // given
+        DigestChallengeSelector selector = new DigestChallengeSelector(16);
+        selector.setPreference(DigestAlgorithmPreference.STRONGEST_FIRST);
+        selector.select("host", Arrays.asList(MD5, SHA_256));
+        List<String> repeated = Arrays.asList(new String(MD5), new String(SHA_256));
+
+        // when
+        String selected = selector.select("host", repeated);
+
+        // then
+        assertThat(selected).isSameAs(repeated.get(1));
+        assertThat(selector.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAlgorithmOf__shouldExtractAlgorithmToken() {
+        assertThat(DigestChallengeSelector.algorithmOf(SHA_256)).isEqualTo("SHA-256");
+        assertThat(DigestChallengeSelector.algorithmOf(SHA_512_256)).isEqualTo("SHA-512-256");
+        assertThat(DigestChallengeSelector.algorithmOf("Digest realm=\"algorithm=SHA-256\", nonce=\"A\""))
+                .isEqualTo("MD5");
+        assertThat(DigestChallengeSelector.algorithmOf("Digest realm=\"r\",ALGORITHM = MD5-sess"))
+                .isEqualTo("MD5-sess");
+        assertThat(DigestChallengeSelector.algorithmOf("Digest realm=\"a, algorithm=SHA-256\", nonce=\"A\""))
+                .isEqualTo("MD5");
+    }
+}
@@ -0,0 +1,61 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestChallengeTest {
+
+    @Test
+    public void testFromParameters__shouldParseTypedFields() {
+        // given
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("realm", "myrealm");
+        parameters.put("nonce", "BBBBBB");
+        parameters.put("opaque", "CCCCCC");
+        parameters.put("algorithm", "MD5-sess");
+        parameters.put("qop", "auth, AUTH-INT");
+        parameters.put("charset", "UTF-8");
+        parameters.put("stale", "TRUE");
+        parameters.put("userhash", "true");
+
+        // when
+        DigestChallenge challenge = DigestChallenge.fromParameters(parameters, false);
+
+        // then
+        assertThat(challenge.getRealm()).isEqualTo("myrealm");
+        assertThat(challenge.getNonce()).isEqualTo("BBBBBB");
+        assertThat(challenge.getOpaque()).isEqualTo("CCCCCC");
+        assertThat(challenge.getAlgorithm()).isEqualTo("MD5-sess");
+        assertThat(challenge.getQop()).isEqualTo("auth, AUTH-INT");
+        assertThat(challenge.getQopOptions()).containsExactly("auth", "auth-int");
+        assertThat(challenge.getCharset()).isEqualTo("UTF-8");
+        assertThat(challenge.isStale()).isTrue();
+        assertThat(challenge.isUserhash()).isTrue();
+        assertThat(challenge.isConnect()).isFalse();
+    }
+
+    @Test
+    public void testFromParameters__withoutOptionalFields__shouldUseDefaults() {
+        // given
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("realm", "myrealm");
+        parameters.put("nonce", "BBBBBB");
+
+        // when
+        DigestChallenge challenge = DigestChallenge.fromParameters(parameters, true);
+
+        // then
+        assertThat(challenge.getAlgorithm()).isEqualTo("MD5");
+        assertThat(challenge.getQop()).isNull();
+        assertThat(challenge.getQopOptions()).isEmpty();
+        assertThat(challenge.getOpaque()).isNull();
+        assertThat(challenge.getCharset()).isNull();
+        assertThat(challenge.isStale()).isFalse();
+        assertThat(challenge.isUserhash()).isFalse();
+        assertThat(challenge.isConnect()).isTrue();
+    }
+}
@@ -0,0 +1,75 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the bytes allocated and the time spent per preemptively authenticated request, i.e. per
+ * {@link DigestAuthenticator#authenticateWithState(okhttp3.Route, Request)} call with an
+ * established session. This relies on the HotSpot specific {@code com.sun.management.ThreadMXBean}
+ * and is therefore not run as part of the build, the results are published as report entries.
+ */
+@Disabled
+public class DigestHeaderAllocationManualTest {
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    private final DigestAuthenticator authenticator = new DigestAuthenticator(new Credentials("user1", "user1"));
+    private final Request request = new Request.Builder()
+            .url("http://www.google.com/path/to/resource?parameter=value")
+            .get()
+            .build();
+    private long sink;
+
+    @Test
+    public void testAllocationsPerRequest(TestReporter reporter) throws IOException {
+        givenSession("Digest realm=\"myrealm\", nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\", qop=\"auth\"");
+
+        measure(reporter, "auth");
+    }
+
+    @Test
+    public void testAllocationsPerRequestWithoutQop(TestReporter reporter) throws IOException {
+        givenSession("Digest realm=\"myrealm\", nonce=\"dcd98b7102dd2f0e8b11d0f600bfb0c093\"");
+
+        measure(reporter, "no qop");
+    }
+
+    private void givenSession(String challenge) throws IOException {
+        final Response response = new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", challenge)
+                .build();
+        assertThat(authenticator.authenticate(null, response)).isNotNull();
+    }
+
+    private void measure(TestReporter reporter, String name) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += authenticator.authenticateWithState(null, request).hashCode();
+        }
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += authenticator.authenticateWithState(null, request).hashCode();
+        }
+        final long nanos = (System.nanoTime() - start) / ITERATIONS;
+        final long bytes = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / ITERATIONS;
+
+        reporter.publishEntry(name, bytes + " bytes/request, " + nanos + " ns/request (ignore " + sink + ")");
+    }
+}
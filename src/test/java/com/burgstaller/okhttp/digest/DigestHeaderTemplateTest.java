@@ -0,0 +1,45 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestHeaderTemplateTest {
+
+    private static final byte[] DIGEST = {0x01, 0x23, (byte) 0xff};
+
+    @Test
+    public void testRender__withQop__shouldKeepParameterOrder() {
+        // given
+        DigestHeaderTemplate template = DigestHeaderTemplate.create("user", "user", session(
+                "Digest realm=\"myrealm\", nonce=\"BBBBBB\", opaque=\"CCCCCC\", qop=\"auth,auth-int\""));
+
+        // when
+        String header = template.render(DigestHeaderWriter.get(), "/path", DIGEST, "auth-int", 2);
+
+        // then
+        assertThat(header).isEqualTo("Digest username=\"user\", realm=\"myrealm\", nonce=\"BBBBBB\", "
+                + "uri=\"/path\", response=\"0123ff\", qop=auth-int, nc=00000002, cnonce=\"0a4f113b\", "
+                + "algorithm=MD5, opaque=\"CCCCCC\"");
+    }
+
+    @Test
+    public void testRender__withoutQop__shouldOmitNonceCountAndCnonce() {
+        // given
+        DigestHeaderTemplate template = DigestHeaderTemplate.create("user", "hashed", session(
+                "Digest realm=\"myrealm\", nonce=\"BBBBBB\", userhash=true"));
+
+        // when
+        String header = template.render(DigestHeaderWriter.get(), "/a\"b", DIGEST, null, 1);
+
+        // then
+        assertThat(header).isEqualTo("Digest username=\"hashed\", realm=\"myrealm\", nonce=\"BBBBBB\", "
+                + "uri=\"/a\\\"b\", response=\"0123ff\", algorithm=MD5, userhash=true");
+        assertThat(template.isFor("user")).isTrue();
+        assertThat(template.isFor("other")).isFalse();
+    }
+
+    private static NonceSession session(String header) {
+        return new NonceSession(DigestChallengeParser.parse(header, 6, false), false, "0a4f113b");
+    }
+}
@@ -0,0 +1,66 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestHeaderWriterTest {
+
+    /**
+     * Uses the example from RFC 2617, section 3.5.
+     */
+    @Test
+    public void testDigestInput__withRfc2617Example__shouldCalculateExpectedResponse() throws Exception {
+        // given
+        MessageDigest digester = MessageDigest.getInstance("MD5");
+        DigestHeaderWriter writer = DigestHeaderWriter.get();
+
+        // when
+        byte[] hasha1 = writer.input("Mufasa:testrealm@host.com:Circle Of Life").digestInput(digester);
+        byte[] hasha2 = writer.input("GET").input(':').input("/dir/index.html").digestInput(digester);
+        byte[] response = writer.inputHex(hasha1).input(':').input("dcd98b7102dd2f0e8b11d0f600bfb0c093")
+                .input(':').inputNonceCount(1).input(':').input("0a4f113b").input(':').input("auth")
+                .input(':').inputHex(hasha2)
+                .digestInput(digester);
+        writer.append("Digest ").parameterName("response").quotedHexValue(response);
+
+        // then
+        assertThat(writer.takeHeaderValue()).isEqualTo("Digest response=\"6629fae49393a05397450978507c4ef1\"");
+    }
+
+    @Test
+    public void testTakeHeaderValue__shouldQuoteAndEscapeParameters() {
+        String header = DigestHeaderWriter.get()
+                .append("Digest ")
+                .quoted("username", "us\"er\\1")
+                .token("qop", "auth")
+                .parameterName("nc").nonceCountValue(0x1ab)
+                .token("algorithm", "MD5 sess")
+                .takeHeaderValue();
+
+        assertThat(header).isEqualTo("Digest username=\"us\\\"er\\\\1\", qop=auth, nc=000001ab, algorithm=\"MD5 sess\"");
+    }
+
+    @Test
+    public void testGet__shouldClearPreviousContent() {
+        DigestHeaderWriter.get().append("Digest ").quoted("username", "user1");
+
+        String header = DigestHeaderWriter.get().append("Digest ").quoted("realm", "myrealm").takeHeaderValue();
+
+        assertThat(header).isEqualTo("Digest realm=\"myrealm\"");
+    }
+
+    @Test
+    public void testTakeHeaderValue__whenExceedingInitialCapacity__shouldGrow() {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longValue.append("0123456789");
+        }
+
+        String header = DigestHeaderWriter.get().quoted("opaque", longValue.toString()).takeHeaderValue();
+
+        assertThat(header).isEqualTo("opaque=\"" + longValue + "\"");
+    }
+}
@@ -0,0 +1,84 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Canned responses and hash helpers shared by the digest authenticator tests.
+ */
+final class DigestResponses {
+
+    private static final Pattern CNONCE_PATTERN = Pattern.compile("cnonce=\"([0-9a-f]+)\"");
+
+    private DigestResponses() {
+    }
+
+    static Response unauthorized(String url, String realm, String nonce) {
+        return unauthorized(new Request.Builder().url(url).get().build(),
+                "Digest realm=\"" + realm + "\", nonce=\"" + nonce + "\", algorithm=MD5, qop=\"auth\"");
+    }
+
+    static Response unauthorized(Request request, String challenge) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", challenge)
+                .build();
+    }
+
+    static Response stale(String previousNonce, String nonce) {
+        Request request = new Request.Builder()
+                .url("http://www.google.com")
+                .header("Authorization", "Digest username=\"user1\", realm=\"myrealm\", nonce=\"" + previousNonce
+                        + "\", uri=\"/\", response=\"0\", qop=auth, nc=00000001, cnonce=\"0\", algorithm=MD5")
+                .get()
+                .build();
+        return unauthorized(request,
+                "Digest realm=\"myrealm\", nonce=\"" + nonce + "\", algorithm=MD5, qop=\"auth\", stale=true");
+    }
+
+    static Response authenticationInfo(Request request, String authenticationInfo) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .header("Authentication-Info", authenticationInfo)
+                .build();
+    }
+
+    static String cnonceOf(Request request) {
+        Matcher cnonce = CNONCE_PATTERN.matcher(request.header("Authorization"));
+        if (!cnonce.find()) {
+            throw new AssertionError("no cnonce in " + request.header("Authorization"));
+        }
+        return cnonce.group(1);
+    }
+
+    static String md5Hex(String value) {
+        return hex("MD5", value);
+    }
+
+    static String hex(String algorithm, String value) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm).digest(value.getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestSessionStoreTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testLoad__shouldRestoreLatestRecordAndIgnoreTornTail() throws IOException {
+        // given
+        File file = new File(tempDir, "sessions.bin");
+        DigestSessionStore store = new DigestSessionStore(file, Runnable::run);
+        DigestChallenge challenge = DigestChallengeParser.parse(
+                "Digest realm=\"myrealm\", nonce=\"BBBBBB\", opaque=\"CCCCCC\", qop=\"auth\", algorithm=SHA-256", 6,
+                false);
+        store.append("https://myhost.com:443", new NonceSession(challenge, false, "first"));
+        store.append("https://myhost.com:443", new NonceSession(challenge.withNonce("DDDDDD"), false, "second"));
+        store.append("proxy myproxy:3128", new NonceSession(challenge, true, "third"));
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        // when
+        Map<String, NonceSession> sessions = store.load();
+
+        // then
+        assertThat(sessions).containsOnlyKeys("https://myhost.com:443");
+        NonceSession session = sessions.get("https://myhost.com:443");
+        assertThat(session.getNonce()).isEqualTo("DDDDDD");
+        assertThat(session.getCnonce()).isEqualTo("second");
+        assertThat(session.getChallenge().getRealm()).isEqualTo("myrealm");
+        assertThat(session.getChallenge().getOpaque()).isEqualTo("CCCCCC");
+        assertThat(session.getChallenge().getAlgorithm()).isEqualTo("SHA-256");
+        assertThat(session.getChallenge().getQopOptions()).containsExactly("auth");
+    }
+
+    @Test
+    public void testAppend__afterClose__shouldWriteOnCallingThread() throws IOException {
+        // given
+        DigestSessionStore store = new DigestSessionStore(new File(tempDir, "sessions.bin"));
+        DigestChallenge challenge = DigestChallengeParser.parse(
+                "Digest realm=\"myrealm\", nonce=\"BBBBBB\", qop=\"auth\"", 6, false);
+        store.close();
+
+        // when
+        store.append("https://myhost.com:443", new NonceSession(challenge, false, "first"));
+
+        // then
+        assertThat(store.load()).containsOnlyKeys("https://myhost.com:443");
+        store.close();
+    }
+
+    @Test
+    public void testRestoreSessions__shouldAuthenticatePreemptivelyWithNextNonceCount() throws IOException {
+        // given
+        DigestSessionStore store = new DigestSessionStore(new File(tempDir, "sessions.bin"));
+        DigestAuthenticator before = new DigestAuthenticator(new Credentials("user1", "user1"));
+        before.restoreSessions(store);
+        Request request = new Request.Builder()
+                .url("https://myhost.com/path")
+                .get()
+                .build();
+        Response response = new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", "Digest realm=\"myrealm\", nonce=\"BBBBBB\", qop=\"auth\"")
+                .build();
+        assertThat(before.authenticate(null, response).header("Authorization")).contains("nc=00000001");
+        before.saveSessions();
+        store.close();
+
+        // when
+        DigestAuthenticator after = new DigestAuthenticator(new Credentials("user1", "user1"));
+        List<HttpUrl> origins = after.restoreSessions(store);
+        Request authenticated = after.authenticateWithState(null, request);
+
+        // then
+        assertThat(origins).containsExactly(HttpUrl.get("https://myhost.com/"));
+        assertThat(authenticated.header("Authorization")).contains("nonce=\"BBBBBB\"");
+        assertThat(nonceCountOf(authenticated)).isGreaterThan(1);
+    }
+
+    @Test
+    public void testRestoreSessions__afterCrash__shouldNotRepeatNonceCounts() throws IOException {
+        // given
+        File file = new File(tempDir, "sessions.bin");
+        DigestAuthenticator before = new DigestAuthenticator(new Credentials("user1", "user1"));
+        before.restoreSessions(new DigestSessionStore(file, Runnable::run));
+        Request request = new Request.Builder()
+                .url("https://myhost.com/path")
+                .get()
+                .build();
+        before.authenticate(null, new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .header("WWW-Authenticate", "Digest realm=\"myrealm\", nonce=\"BBBBBB\", qop=\"auth\"")
+                .build());
+        long lastNonceCount = 0;
+        for (int i = 0; i < 3 * DigestSessionStore.NONCE_COUNT_RESERVATION; i++) {
+            lastNonceCount = nonceCountOf(before.authenticateWithState(null, request));
+        }
+
+        // when: the process dies without saving its sessions
+        DigestAuthenticator after = new DigestAuthenticator(new Credentials("user1", "user1"));
+        after.restoreSessions(new DigestSessionStore(file, Runnable::run));
+        Request authenticated = after.authenticateWithState(null, request);
+
+        // then
+        assertThat(authenticated.header("Authorization")).contains("nonce=\"BBBBBB\"");
+        assertThat(nonceCountOf(authenticated)).isGreaterThan(lastNonceCount);
+    }
+
+    private static long nonceCountOf(Request request) {
+        Matcher matcher = Pattern.compile("nc=([0-9a-f]{8})").matcher(request.header("Authorization"));
+        assertThat(matcher.find()).isTrue();
+        return Long.parseLong(matcher.group(1), 16);
+    }
+}
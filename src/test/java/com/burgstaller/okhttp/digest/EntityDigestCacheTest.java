@@ -0,0 +1,56 @@
+package com.burgstaller.okhttp.digest;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EntityDigestCacheTest {
+    private static final MediaType TEXT = MediaType.get("text/plain");
+
+    @Test
+    public void testGet__withSameBody__shouldReturnStoredHash() throws Exception {
+        // given
+        EntityDigestCache cache = new EntityDigestCache();
+        RequestBody body = RequestBody.create("content", TEXT);
+        byte[] hash = {1, 2, 3};
+        cache.put(body, "MD5", hash);
+
+        // when
+        byte[] cached = cache.get(body, "MD5");
+
+        // then
+        assertThat(cached).isSameAs(hash);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet__withOtherBodyOrAlgorithm__shouldMiss() throws Exception {
+        // given
+        EntityDigestCache cache = new EntityDigestCache();
+        RequestBody body = RequestBody.create("content", TEXT);
+        cache.put(body, "MD5", new byte[]{1});
+
+        // then
+        assertThat(cache.get(RequestBody.create("content", TEXT), "MD5")).isNull();
+        assertThat(cache.get(body, "SHA-256")).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPut__withSeveralAlgorithms__shouldKeepAll() throws Exception {
+        // given
+        EntityDigestCache cache = new EntityDigestCache();
+        RequestBody body = RequestBody.create("content", TEXT);
+
+        // when
+        cache.put(body, "MD5", new byte[]{1});
+        cache.put(body, "SHA-256", new byte[]{2});
+
+        // then
+        assertThat(cache.get(body, "MD5")).containsExactly(1);
+        assertThat(cache.get(body, "SHA-256")).containsExactly(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+}
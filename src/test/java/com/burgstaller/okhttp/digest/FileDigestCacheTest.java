@@ -0,0 +1,85 @@
+package com.burgstaller.okhttp.digest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileDigestCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testDigest__shouldHashFileContents() throws Exception {
+        // given
+        File file = writeFile("firmware.bin", "firmware image");
+        FileDigestCache cache = new FileDigestCache(4);
+
+        // when
+        byte[] hash = cache.digest(file, MessageDigest.getInstance("MD5"));
+
+        // then
+        assertThat(hash).isEqualTo(md5("firmware image"));
+    }
+
+    @Test
+    public void testDigest__withUnchangedFile__shouldReuseHash() throws Exception {
+        // given
+        File file = writeFile("firmware.bin", "firmware image");
+        FileDigestCache cache = new FileDigestCache(4);
+        byte[] first = cache.digest(file, MessageDigest.getInstance("MD5"));
+
+        // when
+        byte[] second = cache.digest(file, MessageDigest.getInstance("MD5"));
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDigest__withModifiedFile__shouldHashAgain() throws Exception {
+        // given
+        File file = writeFile("firmware.bin", "firmware image");
+        FileDigestCache cache = new FileDigestCache(4);
+        cache.digest(file, MessageDigest.getInstance("MD5"));
+        long lastModified = file.lastModified();
+
+        // when
+        writeFile("firmware.bin", "firmware image v2");
+        assertThat(file.setLastModified(lastModified + 2000)).isTrue();
+        byte[] hash = cache.digest(file, MessageDigest.getInstance("MD5"));
+
+        // then
+        assertThat(hash).isEqualTo(md5("firmware image v2"));
+    }
+
+    @Test
+    public void testDigest__withEmptyFile__shouldHashEmptyContent() throws Exception {
+        // given
+        File file = writeFile("empty.bin", "");
+
+        // when
+        byte[] hash = new FileDigestCache(4).digest(file, MessageDigest.getInstance("MD5"));
+
+        // then
+        assertThat(hash).isEqualTo(md5(""));
+    }
+
+    private File writeFile(String name, String content) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+        return path.toFile();
+    }
+
+    private static byte[] md5(String content) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.US_ASCII));
+    }
+}
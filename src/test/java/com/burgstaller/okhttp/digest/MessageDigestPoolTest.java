@@ -0,0 +1,83 @@
+package com.burgstaller.okhttp.digest;
+
+import com.burgstaller.okhttp.digest.fromhttpclient.UnsupportedDigestAlgorithmException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MessageDigestPoolTest {
+
+    @Test
+    public void testAcquire__afterRelease__shouldReuseResetEngine() {
+        // given
+        MessageDigestPool pool = new MessageDigestPool(2);
+        MessageDigest first = pool.acquire("MD5");
+        first.update("dirty".getBytes(StandardCharsets.US_ASCII));
+        pool.release(first);
+
+        // when
+        MessageDigest second = pool.acquire("MD5");
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(second.digest()).isEqualTo(md5Of(""));
+        assertThat(pool.getHitCount()).isEqualTo(1);
+        assertThat(pool.getMissCount()).isEqualTo(1);
+        assertThat(pool.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void testRelease__whenPoolIsFull__shouldDiscardEngine() {
+        // given
+        MessageDigestPool pool = new MessageDigestPool(1);
+        MessageDigest first = pool.acquire("MD5");
+        MessageDigest second = pool.acquire("MD5");
+
+        // when
+        pool.release(first);
+        pool.release(second);
+
+        // then
+        assertThat(pool.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAcquire__afterReleaseOfEngineWithOtherName__shouldReuseEngine() {
+        // given
+        DigestAlgorithm.register("POOL-TEST", "pool-test-hash", () -> MessageDigest.getInstance("MD5"));
+        try {
+            DigestAlgorithm algorithm = DigestAlgorithm.forToken("POOL-TEST");
+            MessageDigestPool pool = new MessageDigestPool(2);
+            MessageDigest first = pool.acquire(algorithm);
+            pool.release(algorithm, first);
+
+            // when
+            MessageDigest second = pool.acquire(algorithm);
+
+            // then
+            assertThat(second).isSameAs(first);
+            assertThat(pool.getHitCount()).isEqualTo(1);
+        } finally {
+            DigestAlgorithm.unregister("POOL-TEST");
+        }
+    }
+
+    @Test
+    public void testAcquire__withUnknownAlgorithm__shouldThrowException() {
+        MessageDigestPool pool = new MessageDigestPool(1);
+
+        assertThrows(UnsupportedDigestAlgorithmException.class, () -> pool.acquire("NO-SUCH-ALGORITHM"));
+    }
+
+    private static byte[] md5Of(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.US_ASCII));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.burgstaller.okhttp.digest.fromhttpclient;
+
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpEntityDigesterTest {
+
+    @Test
+    public void testGetDigest__withMixedWrites__shouldDigestAllBytesInOrder() throws Exception {
+        // given
+        HttpEntityDigester digester = new HttpEntityDigester(MessageDigest.getInstance("MD5"));
+
+        // when
+        digester.writeUtf8("abc");
+        digester.writeByte('d');
+        digester.write("efg".getBytes(StandardCharsets.US_ASCII));
+        digester.write(ByteString.encodeUtf8("hij"));
+        digester.write(new Buffer().writeUtf8("klm"), 3);
+        digester.writeDecimalLong(42);
+        digester.close();
+
+        // then
+        assertThat(digester.getDigest()).isEqualTo(md5("abcdefghijklm42".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testGetDigest__withLargeSource__shouldDigestAllSegments() throws Exception {
+        // given
+        byte[] content = new byte[1024 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        HttpEntityDigester digester = new HttpEntityDigester(MessageDigest.getInstance("MD5"));
+
+        // when
+        long written = digester.writeAll(new Buffer().write(content));
+        digester.close();
+
+        // then
+        assertThat(written).isEqualTo(content.length);
+        assertThat(digester.buffer().size()).isZero();
+        assertThat(digester.getDigest()).isEqualTo(md5(content));
+    }
+
+    @Test
+    public void testGetDigest__withoutContent__shouldDigestEmptyEntity() throws Exception {
+        // given
+        HttpEntityDigester digester = new HttpEntityDigester(MessageDigest.getInstance("MD5"));
+
+        // when
+        digester.close();
+
+        // then
+        assertThat(digester.getDigest()).isEqualTo(md5(new byte[0]));
+    }
+
+    private static byte[] md5(byte[] content) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(content);
+    }
+}